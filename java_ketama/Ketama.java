@@ -28,6 +28,8 @@ public class Ketama {
 	public static final int KETAMA_HASH 	= 3;			// MD5 Based
 	public static final int FNV1A_32 	= 4;			//fnv1A-32 based
 	private static final int POOL_SIZE      = 160;			//every server has 160 points in pool
+	private static final long FNV1A_INIT32  = 0x811c9dc5L;		//fnv1A-32 offset basis
+	private static final int FNV1A_PRIME32  = 0x01000193;		//fnv1A-32 prime
 
 	// Pool data
 	private boolean initialized       	= false;
@@ -460,23 +462,7 @@ public class Ketama {
          * @return hashvalue
         */
         public static Long getFnv1Hash(char[] str) {
-        	byte [] data = String.valueOf(str).getBytes();
-                
-                BigInteger INIT32  = new BigInteger("811c9dc5",         16);
-                BigInteger PRIME32 = new BigInteger("01000193",         16);
-                BigInteger MOD32   = new BigInteger("2").pow(32);
-                
-                
-                
-                BigInteger hash = INIT32;
-                
-                for (byte b : data) {
-                    hash = hash.xor(BigInteger.valueOf((int) b & 0xff));
-                    hash = hash.multiply(PRIME32).mod(MOD32);
-                }
-
-
-        	return hash.longValue();
+                return getFnv1Hash(str, FNV1A_INIT32);
         }
 	
 	/**
@@ -488,21 +474,16 @@ public class Ketama {
         public static Long getFnv1Hash(char[] str, Long previous) {
                 byte [] data = String.valueOf(str).getBytes();
 
-                BigInteger INIT32  = BigInteger.valueOf(previous);
-                BigInteger PRIME32 = new BigInteger("01000193",         16);
-                BigInteger MOD32   = new BigInteger("2").pow(32);
-
-
-
-                BigInteger hash = INIT32;
+                // int arithmetic wraps exactly like the multiply and mod 2^32 of the original BigInteger version
+                if (data.length == 0)
+                        return previous;
 
+                int hash = (int)(long)previous;
                 for (byte b : data) {
-                    hash = hash.xor(BigInteger.valueOf((int) b & 0xff));
-                    hash = hash.multiply(PRIME32).mod(MOD32);
+                    hash = (hash ^ (b & 0xff)) * FNV1A_PRIME32;
                 }
 
-
-                return hash.longValue();
+                return hash & 0xffffffffL;
         }
 
 
@@ -512,18 +493,7 @@ public class Ketama {
          * @return hashvalue
          */
         public static BigInteger getFnv1HashBigInteger(char[] str) {
-                byte [] data = String.valueOf(str).getBytes();
-
-                BigInteger INIT32  = new BigInteger("811c9dc5", 16);
-                BigInteger PRIME32 = new BigInteger("01000193", 16);
-                BigInteger MOD32   = new BigInteger("2").pow(32);
-
-                BigInteger hash = INIT32;
-                for (byte b : data) {
-                    hash = hash.xor(BigInteger.valueOf((int) b & 0xff));
-                    hash = hash.multiply(PRIME32).mod(MOD32);
-                }
-                return hash;
+                return BigInteger.valueOf(getFnv1Hash(str));
       }
 
 	/** 
@@ -0,0 +1,83 @@
+package com.wayfair.common.hash.ketama;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * A range of hash values on a continuum that all map to the same server. Both ends of the range are inclusive, and
+ * arcs never wrap: the arc of the first point is split into one arc ending at Long.MAX_VALUE and one starting at
+ * Long.MIN_VALUE.
+ */
+public final class ContinuumArc {
+
+    private final long start;
+    private final long end;
+    private final KetamaServer server;
+
+    public ContinuumArc(long start, long end, KetamaServer server) {
+        this.start = start;
+        this.end = end;
+        this.server = server;
+    }
+
+    /**
+     * @return the lowest hash value in the arc
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the highest hash value in the arc
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the server the hash values of the arc map to
+     */
+    public KetamaServer getServer() {
+        return server;
+    }
+
+    /**
+     * Check whether a hash value is in the arc.
+     *
+     * @param hashValue the hash value of a key
+     *
+     * @return true if the hash value is between start and end, inclusive
+     */
+    public boolean contains(long hashValue) {
+        return start <= hashValue && hashValue <= end;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object instanceof ContinuumArc) {
+            ContinuumArc arc = (ContinuumArc) object;
+
+            return new EqualsBuilder()
+                    .append(arc.getStart(), getStart())
+                    .append(arc.getEnd(), getEnd())
+                    .append(arc.getServer(), getServer())
+                    .build();
+        }
+
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(getStart())
+                .append(getEnd())
+                .append(getServer())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getStart() + ", " + getEnd() + "] -> " + getServer();
+    }
+}
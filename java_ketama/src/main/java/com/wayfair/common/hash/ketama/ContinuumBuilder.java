@@ -0,0 +1,141 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Throwables;
+import com.google.common.primitives.Longs;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a continuum for many servers at once on an ExecutorService.
+ * <p/>
+ * The servers are split into chunks, and each task computes the points of a chunk of servers with the
+ * ServerHashStrategy and merges them into one sorted run. The runs are then merged pairwise, each level of merges in
+ * parallel, until one run is left, which becomes the continuum in a final pass that numbers the servers.
+ * <p/>
+ * Adding servers one by one to a TreeMap lets a later server overwrite a point an earlier server shares with it. The
+ * merges keep the point of the server later in iteration order, so the continuum built here is identical to the one
+ * built by adding the servers one by one in the same order.
+ */
+final class ContinuumBuilder {
+
+    // tasks per available processor, so a slow chunk does not leave the other processors idle
+    private static final int TASKS_PER_PROCESSOR = 4;
+
+    private ContinuumBuilder() {
+    }
+
+    /**
+     * Build a continuum holding the points of every server.
+     *
+     * @param serverHashStrategy the strategy placing each server
+     * @param servers            the servers, in the order they would be added one by one
+     * @param pointsPerServer    the number of points for a server of weight 1
+     * @param executor           the executor to compute and merge the points on
+     * @param pointsByOrder      an array as long as servers, which is filled with the sorted points of each server
+     *
+     * @return the continuum of the servers
+     */
+    static SortedArrayContinuum build(final ServerHashStrategy serverHashStrategy, final List<KetamaServer> servers,
+                                      final int pointsPerServer, ExecutorService executor,
+                                      final long[][] pointsByOrder) {
+        if (servers.isEmpty()) {
+            return SortedArrayContinuum.empty();
+        }
+
+        int taskCount = Math.min(servers.size(), Runtime.getRuntime().availableProcessors() * TASKS_PER_PROCESSOR);
+        List<Callable<PointRun>> tasks = new ArrayList<Callable<PointRun>>(taskCount);
+        for (int t = 0 ; t < taskCount ; t++) {
+            final int from = (int) ((long) servers.size() * t / taskCount);
+            final int to = (int) ((long) servers.size() * (t + 1) / taskCount);
+            tasks.add(new Callable<PointRun>() {
+                @Override
+                public PointRun call() {
+                    return place(serverHashStrategy, servers, from, to, pointsPerServer, pointsByOrder);
+                }
+            });
+        }
+        List<PointRun> runs = invokeAll(executor, tasks);
+
+        while (runs.size() > 1) {
+            List<Callable<PointRun>> merges = new ArrayList<Callable<PointRun>>(runs.size() / 2);
+            for (int i = 0 ; i + 1 < runs.size() ; i += 2) {
+                final PointRun first = runs.get(i);
+                final PointRun second = runs.get(i + 1);
+                merges.add(new Callable<PointRun>() {
+                    @Override
+                    public PointRun call() {
+                        return PointRun.merge(first, second);
+                    }
+                });
+            }
+
+            List<PointRun> merged = invokeAll(executor, merges);
+            if (runs.size() % 2 != 0) {
+                merged.add(runs.get(runs.size() - 1));
+            }
+            runs = merged;
+        }
+
+        return toContinuum(runs.get(0), servers);
+    }
+
+    /**
+     * Place the servers from index from up to index to, keep the points of each, and merge them into one run.
+     */
+    private static PointRun place(ServerHashStrategy serverHashStrategy, List<KetamaServer> servers, int from, int to,
+                                  int pointsPerServer, long[][] pointsByOrder) {
+        TreeMap<Long, KetamaServer> placed = new TreeMap<Long, KetamaServer>();
+        List<PointRun> runs = new ArrayList<PointRun>(to - from);
+        for (int order = from ; order < to ; order++) {
+            placed.clear();
+            serverHashStrategy.addServer(servers.get(order), placed, pointsPerServer);
+
+            pointsByOrder[order] = Longs.toArray(placed.keySet());
+            runs.add(PointRun.of(pointsByOrder[order], order));
+        }
+
+        return PointRun.mergeAll(runs);
+    }
+
+    /**
+     * Turn the final run into a continuum, numbering the servers in order of their first point as
+     * SortedArrayContinuum.from does.
+     */
+    private static SortedArrayContinuum toContinuum(PointRun run, List<KetamaServer> servers) {
+        long[] points = run.size == run.points.length ? run.points : Arrays.copyOf(run.points, run.size);
+        int[] serverIndexes = new int[run.size];
+        int[] indexesByOrder = new int[servers.size()];
+        Arrays.fill(indexesByOrder, -1);
+        List<KetamaServer> owners = new ArrayList<KetamaServer>();
+
+        for (int i = 0 ; i < run.size ; i++) {
+            int order = run.orders[i];
+            if (indexesByOrder[order] < 0) {
+                indexesByOrder[order] = owners.size();
+                owners.add(servers.get(order));
+            }
+            serverIndexes[i] = indexesByOrder[order];
+        }
+
+        return SortedArrayContinuum.of(points, serverIndexes, owners.toArray(new KetamaServer[owners.size()]));
+    }
+
+    private static List<PointRun> invokeAll(ExecutorService executor, List<Callable<PointRun>> tasks) {
+        try {
+            List<PointRun> runs = new ArrayList<PointRun>(tasks.size() + 1);
+            for (Future<PointRun> future : executor.invokeAll(tasks)) {
+                runs.add(future.get());
+            }
+            return runs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.wayfair.common.hash.ketama;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * The per-point arrays of a SortedArrayContinuum: the points, the server index of each point, and the index of the
+ * next point owned by another server. They are kept either in primitive arrays on the heap, or in one direct
+ * ByteBuffer outside of it, where the garbage collector never copies or scans them.
+ */
+abstract class ContinuumStorage {
+
+    private final int size;
+
+    private ContinuumStorage(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Wrap arrays on the heap, which must not be changed afterwards.
+     */
+    static ContinuumStorage onHeap(long[] points, int[] serverIndexes, int[] nextDistinct) {
+        return new HeapStorage(points, serverIndexes, nextDistinct);
+    }
+
+    final int size() {
+        return size;
+    }
+
+    abstract long point(int index);
+
+    abstract int serverIndex(int index);
+
+    abstract int nextDistinct(int index);
+
+    abstract boolean isOffHeap();
+
+    /**
+     * Copy the arrays into a direct buffer.
+     */
+    final ContinuumStorage toOffHeap() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size * 16).order(ByteOrder.nativeOrder());
+        for (int i = 0 ; i < size ; i++) {
+            buffer.putLong(i * 8, point(i));
+        }
+        for (int i = 0 ; i < size ; i++) {
+            buffer.putInt(size * 8 + i * 4, serverIndex(i));
+            buffer.putInt(size * 12 + i * 4, nextDistinct(i));
+        }
+
+        return new DirectStorage(buffer, size);
+    }
+
+    /**
+     * Copy the arrays back onto the heap.
+     */
+    final ContinuumStorage toOnHeap() {
+        long[] points = new long[size];
+        int[] serverIndexes = new int[size];
+        int[] nextDistinct = new int[size];
+        for (int i = 0 ; i < size ; i++) {
+            points[i] = point(i);
+            serverIndexes[i] = serverIndex(i);
+            nextDistinct[i] = nextDistinct(i);
+        }
+
+        return new HeapStorage(points, serverIndexes, nextDistinct);
+    }
+
+    private static final class HeapStorage extends ContinuumStorage {
+
+        private final long[] points;
+        private final int[] serverIndexes;
+        private final int[] nextDistinct;
+
+        private HeapStorage(long[] points, int[] serverIndexes, int[] nextDistinct) {
+            super(points.length);
+            this.points = points;
+            this.serverIndexes = serverIndexes;
+            this.nextDistinct = nextDistinct;
+        }
+
+        @Override
+        long point(int index) {
+            return points[index];
+        }
+
+        @Override
+        int serverIndex(int index) {
+            return serverIndexes[index];
+        }
+
+        @Override
+        int nextDistinct(int index) {
+            return nextDistinct[index];
+        }
+
+        @Override
+        boolean isOffHeap() {
+            return false;
+        }
+    }
+
+    /**
+     * The points, then the server indexes, then the next distinct indexes, in one direct buffer in native byte order.
+     * The memory is returned to the system when the buffer is garbage collected; it is never freed explicitly, since
+     * lookups may still be reading a continuum the ring has replaced.
+     */
+    private static final class DirectStorage extends ContinuumStorage {
+
+        // views on the buffer, so reads index by element rather than by byte offset
+        private final LongBuffer points;
+        private final IntBuffer serverIndexes;
+        private final IntBuffer nextDistinct;
+
+        private DirectStorage(ByteBuffer buffer, int size) {
+            super(size);
+            this.points = slice(buffer, 0, size * 8).asLongBuffer();
+            this.serverIndexes = slice(buffer, size * 8, size * 4).asIntBuffer();
+            this.nextDistinct = slice(buffer, size * 12, size * 4).asIntBuffer();
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset);
+            duplicate.limit(offset + length);
+            return duplicate.slice().order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        long point(int index) {
+            return points.get(index);
+        }
+
+        @Override
+        int serverIndex(int index) {
+            return serverIndexes.get(index);
+        }
+
+        @Override
+        int nextDistinct(int index) {
+            return nextDistinct.get(index);
+        }
+
+        @Override
+        boolean isOffHeap() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.*;
+
+/**
+ * Measures how evenly a HashRing spreads keys over its servers. Every server's share of the keys is compared with its
+ * share of the total weight, so a perfectly balanced ring has a peak-to-mean ratio of 1 and a relative standard
+ * deviation of 0.
+ */
+public final class DistributionReport {
+
+    private final Map<KetamaServer, Integer> counts;
+    private final int keyCount;
+    private final double peakToMean;
+    private final double relativeStandardDeviation;
+
+    private DistributionReport(Map<KetamaServer, Integer> counts, int keyCount, double peakToMean,
+                               double relativeStandardDeviation) {
+        this.counts = counts;
+        this.keyCount = keyCount;
+        this.peakToMean = peakToMean;
+        this.relativeStandardDeviation = relativeStandardDeviation;
+    }
+
+    /**
+     * Route the keys "key0" to "key" + (keyCount - 1) through a ring and report how they are spread.
+     *
+     * @param ring     the ring to measure
+     * @param keyCount the number of keys to route
+     *
+     * @return the distribution of the keys over the servers of the ring
+     *
+     * @throws java.lang.NullPointerException if ring is null
+     * @throws java.lang.IllegalArgumentException if keyCount is less than 1 or the ring is empty
+     */
+    public static DistributionReport measure(HashRing ring, int keyCount) {
+        Preconditions.checkNotNull(ring, "ring cannot be null");
+        Preconditions.checkArgument(keyCount > 0, "keyCount must be greater than 0");
+
+        List<String> keys = new ArrayList<String>(keyCount);
+        for (int i = 0 ; i < keyCount ; i++) {
+            keys.add("key" + i);
+        }
+        return measure(ring, keys);
+    }
+
+    /**
+     * Route keys through a ring and report how they are spread.
+     *
+     * @param ring the ring to measure
+     * @param keys the keys to route
+     *
+     * @return the distribution of the keys over the servers of the ring
+     *
+     * @throws java.lang.NullPointerException if ring or keys is null
+     * @throws java.lang.IllegalArgumentException if keys is empty or the ring is empty
+     */
+    public static DistributionReport measure(HashRing ring, Collection<String> keys) {
+        Preconditions.checkNotNull(ring, "ring cannot be null");
+        Preconditions.checkNotNull(keys, "keys cannot be null");
+        Preconditions.checkArgument(!keys.isEmpty(), "keys cannot be empty");
+
+        Set<KetamaServer> servers = ring.getServers();
+        Preconditions.checkArgument(!servers.isEmpty(), "ring cannot be empty");
+
+        Map<KetamaServer, Integer> counts = new HashMap<KetamaServer, Integer>();
+        double totalWeight = 0;
+        for (KetamaServer server : servers) {
+            counts.put(server, 0);
+            totalWeight += server.getWeight();
+        }
+        for (String key : keys) {
+            KetamaServer server = ring.get(key);
+            Integer count = counts.get(server);
+            counts.put(server, count == null ? 1 : count + 1);
+        }
+
+        // compare each server's load with its fair share, so weighted servers are not counted as imbalance
+        double peak = 0;
+        double sumOfSquares = 0;
+        for (KetamaServer server : servers) {
+            double expected = keys.size() * server.getWeight() / totalWeight;
+            double ratio = counts.get(server) / expected;
+            peak = Math.max(peak, ratio);
+            sumOfSquares += (ratio - 1) * (ratio - 1);
+        }
+
+        return new DistributionReport(ImmutableMap.copyOf(counts), keys.size(), peak,
+                Math.sqrt(sumOfSquares / servers.size()));
+    }
+
+    /**
+     * Get the number of keys that mapped to each server.
+     *
+     * @return an unmodifiable map of each server to its number of keys
+     */
+    public Map<KetamaServer, Integer> getCounts() {
+        return counts;
+    }
+
+    /**
+     * Get the number of keys routed.
+     *
+     * @return the number of keys routed
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Get the load of the most loaded server relative to its fair share of the keys.
+     *
+     * @return the highest ratio of a server's keys to its fair share
+     */
+    public double getPeakToMean() {
+        return peakToMean;
+    }
+
+    /**
+     * Get the standard deviation of the servers' loads relative to their fair shares.
+     *
+     * @return the relative standard deviation of the loads
+     */
+    public double getRelativeStandardDeviation() {
+        return relativeStandardDeviation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d keys over %d servers: peak-to-mean %.3f, relative standard deviation %.3f",
+                keyCount, counts.size(), peakToMean, relativeStandardDeviation);
+    }
+}
@@ -1,20 +1,22 @@
 package com.wayfair.common.hash.ketama;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
-import org.apache.commons.lang3.StringUtils;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 /**
  * This FNV implementation was adapted from Jake Douglas's fnv-java project: https://github.com/jakedouglas/fnv-java
+ * <p/>
+ * Hashes are computed with 32-bit int arithmetic, which wraps exactly like the modulo 2^32 of the reference
+ * implementation. Character input is encoded as UTF-8 while it is hashed, so no byte array is allocated.
  */
 public class FNV1A32HashFunction implements HashFunction {
 
     private static final long INIT32  = 2166136261L; // 0x811c9dc5
-    private static final BigInteger PRIME32 = new BigInteger("01000193", 16);
-    private static final BigInteger MOD32   = new BigInteger("2").pow(32);
+    private static final int PRIME32 = 0x01000193;
+
+    // String.getBytes("UTF-8") replaces unpaired surrogates with '?'
+    private static final int MALFORMED_REPLACEMENT = '?';
 
     @Override
     public long calculateHash(String input) {
@@ -32,21 +34,132 @@ public class FNV1A32HashFunction implements HashFunction {
      * @throws  java.lang.NullPointerException if input is null
      */
     public long calculateHash(String input, long initialValue) {
+        return calculateHash((CharSequence) input, initialValue);
+    }
+
+    /**
+     * Calculate a hash value given an input. The input will be encoded as UTF-8 while it is hashed.
+     *
+     * @param input the characters to hash
+     *
+     * @return hash value given input
+     *
+     * @throws java.lang.NullPointerException if input is null
+     */
+    public long calculateHash(CharSequence input) {
+        return calculateHash(input, INIT32);
+    }
+
+    /**
+     * Calculate a hash value given an input and initialValue. The input will be encoded as UTF-8 while it is hashed,
+     * producing the same value as hashing the bytes of input.toString().getBytes("UTF-8").
+     *
+     * @param input        the characters to hash
+     * @param initialValue the value to start hashing from
+     *
+     * @return hash value given input and initialValue
+     *
+     * @throws java.lang.NullPointerException if input is null
+     */
+    public long calculateHash(CharSequence input, long initialValue) {
+        Preconditions.checkNotNull(input);
+
+        int length = input.length();
+        if (length == 0) {
+            return initialValue;
+        }
+
+        int hash = (int) initialValue;
+        for (int i = 0 ; i < length ; i++) {
+            char c = input.charAt(i);
+
+            if (c < 0x80) {
+                hash = (hash ^ c) * PRIME32;
+            } else if (c < 0x800) {
+                hash = (hash ^ (0xc0 | (c >> 6))) * PRIME32;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * PRIME32;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                hash = (hash ^ (0xe0 | (c >> 12))) * PRIME32;
+                hash = (hash ^ (0x80 | ((c >> 6) & 0x3f))) * PRIME32;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * PRIME32;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, input.charAt(++i));
+                hash = (hash ^ (0xf0 | (codePoint >> 18))) * PRIME32;
+                hash = (hash ^ (0x80 | ((codePoint >> 12) & 0x3f))) * PRIME32;
+                hash = (hash ^ (0x80 | ((codePoint >> 6) & 0x3f))) * PRIME32;
+                hash = (hash ^ (0x80 | (codePoint & 0x3f))) * PRIME32;
+            } else {
+                hash = (hash ^ MALFORMED_REPLACEMENT) * PRIME32;
+            }
+        }
+
+        return hash & 0xffffffffL;
+    }
+
+    /**
+     * Calculate a hash value given an array of bytes.
+     *
+     * @param input the bytes to hash
+     *
+     * @return hash value given input
+     *
+     * @throws java.lang.NullPointerException if input is null
+     */
+    public long calculateByteHash(byte[] input) {
+        Preconditions.checkNotNull(input);
+        return calculateByteHash(input, 0, input.length, INIT32);
+    }
+
+    /**
+     * Calculate a hash value given a range of an array of bytes and an initialValue.
+     *
+     * @param input        the array holding the bytes to hash
+     * @param offset       the index of the first byte to hash
+     * @param length       the number of bytes to hash
+     * @param initialValue the value to start hashing from
+     *
+     * @return hash value given the range of input and initialValue
+     *
+     * @throws java.lang.NullPointerException if input is null
+     * @throws java.lang.IndexOutOfBoundsException if offset and length do not describe a range within input
+     */
+    public long calculateByteHash(byte[] input, int offset, int length, long initialValue) {
+        Preconditions.checkNotNull(input);
+        Preconditions.checkPositionIndexes(offset, offset + length, input.length);
+
+        if (length == 0) {
+            return initialValue;
+        }
+
+        int hash = (int) initialValue;
+        for (int i = offset ; i < offset + length ; i++) {
+            hash = (hash ^ (input[i] & 0xff)) * PRIME32;
+        }
+
+        return hash & 0xffffffffL;
+    }
+
+    /**
+     * Calculate a hash value given the remaining bytes of a buffer. The position of the buffer is not changed.
+     *
+     * @param input the buffer holding the bytes to hash
+     *
+     * @return hash value given the remaining bytes of input
+     *
+     * @throws java.lang.NullPointerException if input is null
+     */
+    public long calculateByteHash(ByteBuffer input) {
         Preconditions.checkNotNull(input);
 
-        byte[] bytes;
-        try {
-            bytes = input.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw Throwables.propagate(e);
+        if (!input.hasRemaining()) {
+            return INIT32;
         }
 
-        BigInteger hash = BigInteger.valueOf(initialValue);
-        for (byte b : bytes) {
-            hash = hash.xor(BigInteger.valueOf((int) b & 0xff));
-            hash = hash.multiply(PRIME32).mod(MOD32);
+        int hash = (int) INIT32;
+        for (int i = input.position() ; i < input.limit() ; i++) {
+            hash = (hash ^ (input.get(i) & 0xff)) * PRIME32;
         }
 
-        return hash.longValue();
+        return hash & 0xffffffffL;
     }
 }
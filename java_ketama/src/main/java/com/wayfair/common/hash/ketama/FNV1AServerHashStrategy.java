@@ -6,6 +6,8 @@ import java.util.TreeMap;
 
 /**
  * A ServerHashStrategy implementation that uses the previous hash value as a starting point with each iteration.
+ * <p/>
+ * The points of a server form a chain, so a server with more points keeps all the points it had with fewer.
  */
 public class FNV1AServerHashStrategy implements ServerHashStrategy {
 
@@ -17,10 +19,12 @@ public class FNV1AServerHashStrategy implements ServerHashStrategy {
         Preconditions.checkNotNull(continuum);
         Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
 
+        int points = server.getPoints(pointsPerServer);
+
         long hashValue = hashAlgorithm.calculateHash(server.getName());
         continuum.put(hashValue, server);
 
-        for (int i = 0 ; i < (pointsPerServer-1) ; i++) {
+        for (int i = 0 ; i < (points-1) ; i++) {
             hashValue = hashAlgorithm.calculateHash(server.getName(), hashValue);
             continuum.put(hashValue, server);
         }
@@ -32,10 +36,12 @@ public class FNV1AServerHashStrategy implements ServerHashStrategy {
         Preconditions.checkNotNull(continuum);
         Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
 
+        int points = server.getPoints(pointsPerServer);
+
         long hashValue = hashAlgorithm.calculateHash(server.getName());
         continuum.remove(hashValue);
 
-        for (int i = 0 ; i < (pointsPerServer-1) ; i++) {
+        for (int i = 0 ; i < (points-1) ; i++) {
             hashValue = hashAlgorithm.calculateHash(server.getName(), hashValue);
             continuum.remove(hashValue);
         }
@@ -0,0 +1,68 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A level at which servers fail together, used to spread the replicas of a key so that no two of them fail at once. A
+ * server without the label of a level is in a failure domain of its own at that level.
+ */
+public enum FailureDomain {
+
+    /**
+     * Servers in the same zone, e.g. the same datacenter, share a failure domain.
+     */
+    ZONE {
+        @Override
+        public boolean isSameDomain(KetamaServer first, KetamaServer second) {
+            Preconditions.checkNotNull(first, "first cannot be null");
+            Preconditions.checkNotNull(second, "second cannot be null");
+
+            return first.equals(second) || (first.getZone() != null && first.getZone().equals(second.getZone()));
+        }
+
+        @Override
+        Object domainOf(KetamaServer server) {
+            return server.getZone() == null ? server : server.getZone();
+        }
+    },
+
+    /**
+     * Servers in the same rack of the same zone share a failure domain.
+     */
+    RACK {
+        @Override
+        public boolean isSameDomain(KetamaServer first, KetamaServer second) {
+            Preconditions.checkNotNull(first, "first cannot be null");
+            Preconditions.checkNotNull(second, "second cannot be null");
+
+            return first.equals(second) || (first.getRack() != null && first.getRack().equals(second.getRack())
+                    && Objects.equal(first.getZone(), second.getZone()));
+        }
+
+        @Override
+        Object domainOf(KetamaServer server) {
+            return server.getRack() == null ? server : Arrays.asList(server.getZone(), server.getRack());
+        }
+    };
+
+    /**
+     * Check whether two servers are in the same failure domain at this level. Servers are compared by their labels
+     * without allocating.
+     *
+     * @param first  a server
+     * @param second another server
+     *
+     * @return true if a failure of the domain of one server takes down the other
+     *
+     * @throws java.lang.NullPointerException if first or second is null
+     */
+    public abstract boolean isSameDomain(KetamaServer first, KetamaServer second);
+
+    /**
+     * Get a value equal for servers in the same failure domain at this level, and different otherwise.
+     */
+    abstract Object domainOf(KetamaServer server);
+}
@@ -0,0 +1,103 @@
+package com.wayfair.common.hash.ketama;
+
+import org.joda.time.DateTime;
+
+import java.util.Set;
+
+/**
+ * Maps keys to a pool of servers so that changing the pool moves as few keys as possible. Implementations differ in
+ * how they place servers and which membership changes they support, but all of them are thread-safe: lookups never
+ * block on, nor observe a partially applied, change to the pool.
+ */
+public interface HashRing {
+
+    /**
+     * Get the server a key maps to.
+     *
+     * @param key the key to look up
+     *
+     * @return the server the key maps to
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the ring is empty
+     */
+    KetamaServer get(String key);
+
+    /**
+     * Add a server to the ring. Adding a server already in the ring does nothing.
+     *
+     * @param server the server to add to the ring
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    void add(KetamaServer server);
+
+    /**
+     * Add a set of servers to the ring as a single change.
+     *
+     * @param servers the set of servers to add to the ring
+     *
+     * @throws java.lang.NullPointerException if servers is null
+     */
+    void add(Set<KetamaServer> servers);
+
+    /**
+     * Remove a server from the ring. Removing a server not in the ring does nothing.
+     *
+     * @param server the server to remove from the ring
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    void remove(KetamaServer server);
+
+    /**
+     * Remove a set of servers from the ring as a single change.
+     *
+     * @param servers the set of servers to remove from the ring
+     *
+     * @throws java.lang.NullPointerException if servers is null
+     */
+    void remove(Set<KetamaServer> servers);
+
+    /**
+     * Synchronize the ring with the provided set of servers, adding the servers not in the ring and removing the
+     * servers not in the set, as a single change.
+     *
+     * @param newServers the set of servers the ring should hold
+     *
+     * @throws java.lang.NullPointerException if newServers is null
+     */
+    void synchronizeRing(Set<KetamaServer> newServers);
+
+    /**
+     * Returns true if the ring contains the specified server.
+     *
+     * @param server the server whose presence in the ring is to be tested
+     *
+     * @return true if the rings contains the specified server
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    boolean contains(KetamaServer server);
+
+    /**
+     * Get the set of servers currently in the ring. The set cannot be modified.
+     *
+     * @return an unmodifiable set of servers currently in the ring
+     */
+    Set<KetamaServer> getServers();
+
+    /**
+     * Get the number of servers in the ring.
+     *
+     * @return the number of servers in the ring
+     */
+    int size();
+
+    /**
+     * Get the datetime of the last modification of the ring.
+     *
+     * @return the last datetime a server was added or removed, or null if the ring was never modified
+     */
+    DateTime getModifiedDate();
+}
@@ -6,6 +6,8 @@ import java.util.TreeMap;
 
 /**
  * A ServerHashStrategy implementation that alters the server string used to calculate the point on the continuum with each iteration.
+ * <p/>
+ * The n-th point of a server only depends on n, so a server with more points keeps all the points it had with fewer.
  */
 public class IncrementNameServerHashStrategy implements ServerHashStrategy {
 
@@ -29,7 +31,9 @@ public class IncrementNameServerHashStrategy implements ServerHashStrategy {
         Preconditions.checkNotNull(continuum);
         Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
 
-        for (int i = 0 ; i < pointsPerServer ; i++) {
+        int points = server.getPoints(pointsPerServer);
+
+        for (int i = 0 ; i < points ; i++) {
             String serverIteration = server.getName() + "-" + i;
             continuum.put(hashFunction.calculateHash(serverIteration), server);
         }
@@ -41,7 +45,9 @@ public class IncrementNameServerHashStrategy implements ServerHashStrategy {
         Preconditions.checkNotNull(continuum);
         Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
 
-        for (int i = 0 ; i < pointsPerServer ; i++) {
+        int points = server.getPoints(pointsPerServer);
+
+        for (int i = 0 ; i < points ; i++) {
             String serverIteration = server.getName() + "-" + i;
             continuum.remove(hashFunction.calculateHash(serverIteration));
         }
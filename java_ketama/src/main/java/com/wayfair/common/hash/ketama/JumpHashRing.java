@@ -0,0 +1,288 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.*;
+
+/**
+ * A HashRing using the jump consistent hash of Lamping and Veach. Servers are numbered buckets rather than points on a
+ * continuum, so the ring takes memory proportional to the number of servers and a lookup is a short loop over the
+ * hash of the key, with no search.
+ * <p/>
+ * Jump hashing only moves keys well when buckets are added or removed at the end. Servers are therefore appended as
+ * new buckets, and only the servers in the last buckets can be removed; removing any other server throws an
+ * IllegalArgumentException and leaves the ring unchanged. When several servers are added at once they are appended in
+ * order of name, hostname and port, so rings built from the same sets in the same order agree on every bucket.
+ * Server weights are ignored.
+ * <p/>
+ * This implementation is thread-safe. Changes are serialized and publish a new immutable bucket array through a single
+ * volatile reference, which lookups read without acquiring any lock.
+ */
+public class JumpHashRing implements HashRing {
+
+    private static final long LCG_MULTIPLIER = 2862933555777941757L;
+    private static final double JUMP_SCALE = (double) (1L << 31);
+
+    private static final Comparator<KetamaServer> SERVER_ORDER = new Comparator<KetamaServer>() {
+        @Override
+        public int compare(KetamaServer left, KetamaServer right) {
+            return ComparisonChain.start()
+                    .compare(left.getName(), right.getName())
+                    .compare(left.getHostname(), right.getHostname())
+                    .compare(left.getPort(), right.getPort())
+                    .result();
+        }
+    };
+
+    private HashFunction keyHashFunction;
+    private volatile Buckets buckets;
+
+    /**
+     * Create an empty JumpHashRing.
+     *
+     * @param keyHashFunction the HashFunction to be used when mapping keys to buckets
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     */
+    public JumpHashRing(HashFunction keyHashFunction) {
+        this(keyHashFunction, Collections.<KetamaServer>emptyList());
+    }
+
+    /**
+     * Create a JumpHashRing with the provided servers as its buckets, in order.
+     *
+     * @param keyHashFunction the HashFunction to be used when mapping keys to buckets
+     * @param servers         the servers of the ring; servers.get(i) is bucket i
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction, servers or any server is null
+     * @throws java.lang.IllegalArgumentException if servers holds the same server twice
+     */
+    public JumpHashRing(HashFunction keyHashFunction, List<KetamaServer> servers) {
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        this.keyHashFunction = keyHashFunction;
+        KetamaServer[] array = servers.toArray(new KetamaServer[servers.size()]);
+        for (KetamaServer server : array) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+        }
+        Preconditions.checkArgument(ImmutableSet.copyOf(array).size() == array.length, "servers cannot hold duplicates");
+
+        buckets = new Buckets(array, array.length == 0 ? null : DateTime.now(DateTimeZone.UTC));
+    }
+
+    /**
+     * Compute the jump consistent hash of a key.
+     *
+     * @param key         the 64-bit key
+     * @param bucketCount the number of buckets, greater than 0
+     *
+     * @return the bucket of the key, between 0 and bucketCount - 1
+     */
+    static int jump(long key, int bucketCount) {
+        long bucket = -1;
+        long next = 0;
+        while (next < bucketCount) {
+            bucket = next;
+            key = key * LCG_MULTIPLIER + 1;
+            next = (long) ((bucket + 1) * (JUMP_SCALE / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    @Override
+    public KetamaServer get(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        KetamaServer[] current = buckets.servers;
+        if (current.length == 0) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        return current[jump(keyHashFunction.calculateHash(key), current.length)];
+    }
+
+    /**
+     * Get the bucket a key maps to, which is the index of its server in getBuckets().
+     *
+     * @param key the key to look up
+     *
+     * @return the bucket of the key
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the ring is empty
+     */
+    public int getBucket(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        int bucketCount = buckets.servers.length;
+        if (bucketCount == 0) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        return jump(keyHashFunction.calculateHash(key), bucketCount);
+    }
+
+    /**
+     * Append a server as the last bucket. Adding a server already in the ring does nothing.
+     */
+    @Override
+    public synchronized void add(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        add(Collections.singleton(server));
+    }
+
+    /**
+     * Append the servers not already in the ring as new buckets, in order of name, hostname and port.
+     */
+    @Override
+    public synchronized void add(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        List<KetamaServer> appended = new ArrayList<KetamaServer>();
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            if (!buckets.serverSet.contains(server)) {
+                appended.add(server);
+            }
+        }
+
+        publish(buckets.servers.length, appended);
+    }
+
+    /**
+     * Remove a server, which must be in the last bucket. Removing a server not in the ring does nothing.
+     *
+     * @throws java.lang.IllegalArgumentException if the server is in the ring but not in the last bucket
+     */
+    @Override
+    public synchronized void remove(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        remove(Collections.singleton(server));
+    }
+
+    /**
+     * Remove a set of servers, which must be in the last buckets of the ring. Servers not in the ring are ignored.
+     *
+     * @throws java.lang.IllegalArgumentException if the servers in the ring are not all in its last buckets
+     */
+    @Override
+    public synchronized void remove(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+        }
+
+        publish(retainedBuckets(servers), Collections.<KetamaServer>emptyList());
+    }
+
+    /**
+     * Synchronize the ring with the provided set of servers. The servers to remove must be in the last buckets of the
+     * ring; they are removed first, and the new servers are then appended in order of name, hostname and port.
+     *
+     * @throws java.lang.IllegalArgumentException if the servers to remove are not all in the last buckets of the ring
+     */
+    @Override
+    public synchronized void synchronizeRing(Set<KetamaServer> newServers) {
+        Preconditions.checkNotNull(newServers, "newServers cannot be null");
+
+        Buckets current = buckets;
+        int retained = retainedBuckets(Sets.difference(current.serverSet, newServers));
+        List<KetamaServer> appended = new ArrayList<KetamaServer>(Sets.difference(newServers, current.serverSet));
+        publish(retained, appended);
+    }
+
+    @Override
+    public boolean contains(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+        return buckets.serverSet.contains(server);
+    }
+
+    @Override
+    public Set<KetamaServer> getServers() {
+        return buckets.serverSet;
+    }
+
+    /**
+     * Get the servers of the ring in bucket order; the server at index i is bucket i. The list cannot be modified.
+     *
+     * @return an unmodifiable list of the servers in bucket order
+     */
+    public List<KetamaServer> getBuckets() {
+        return Collections.unmodifiableList(Arrays.asList(buckets.servers));
+    }
+
+    @Override
+    public int size() {
+        return buckets.servers.length;
+    }
+
+    @Override
+    public DateTime getModifiedDate() {
+        return buckets.modifiedDate;
+    }
+
+    /**
+     * Count the buckets that remain once the provided servers are removed. Callers must hold the ring's lock.
+     *
+     * @throws java.lang.IllegalArgumentException if the servers in the ring are not all in its last buckets
+     */
+    private int retainedBuckets(Set<KetamaServer> removed) {
+        KetamaServer[] current = buckets.servers;
+
+        int retained = current.length;
+        while (retained > 0 && removed.contains(current[retained - 1])) {
+            retained--;
+        }
+
+        for (int i = 0 ; i < retained ; i++) {
+            Preconditions.checkArgument(!removed.contains(current[i]),
+                    "Only the servers in the last buckets can be removed, not %s in bucket %s", current[i], i);
+        }
+
+        return retained;
+    }
+
+    /**
+     * Keep the first buckets of the ring, append the provided servers in order and publish the result. Callers must
+     * hold the ring's lock.
+     */
+    private void publish(int retained, List<KetamaServer> appended) {
+        KetamaServer[] current = buckets.servers;
+        if (retained == current.length && appended.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(appended, SERVER_ORDER);
+        KetamaServer[] servers = Arrays.copyOf(current, retained + appended.size());
+        for (int i = 0 ; i < appended.size() ; i++) {
+            servers[retained + i] = appended.get(i);
+        }
+
+        buckets = new Buckets(servers, DateTime.now(DateTimeZone.UTC));
+    }
+
+    /**
+     * An immutable view of the buckets at one point in time.
+     */
+    private static final class Buckets {
+
+        private final KetamaServer[] servers;
+        private final Set<KetamaServer> serverSet;
+        private final DateTime modifiedDate;
+
+        private Buckets(KetamaServer[] servers, DateTime modifiedDate) {
+            this.servers = servers;
+            this.serverSet = ImmutableSet.copyOf(servers);
+            this.modifiedDate = modifiedDate;
+        }
+    }
+}
@@ -1,28 +1,77 @@
 package com.wayfair.common.hash.ketama;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * A KetamaRing can be used to map keys to a pool of servers. This consistent hashing approach maps each server to 160
- * points on the ring. When a server is added or remove, only a subset of the keys will be mapped to new servers,
- * rather than remapping everything.
+ * points on the ring per unit of weight. When a server is added or remove, only a subset of the keys will be mapped to
+ * new servers, rather than remapping everything.
  * <p/>
- * This is not a thread-safe implementation.
+ * Servers are placed by the ServerHashStrategy, and their points are kept in a SortedArrayContinuum. Lookups binary
+ * search its primitive arrays rather than walking a tree. The ring remembers the points of every server, so a change
+ * never rehashes a server it removes: it collects the points it puts and removes, in order, and merges them into the
+ * continuum in one linear pass. The result is the same continuum as putting and removing the points one by one.
+ * <p/>
+ * This implementation is thread-safe. Changes to the ring are serialized and build a new immutable snapshot of the
+ * continuum off to the side, which is then published through a single volatile reference. Lookups read the current
+ * snapshot without acquiring any lock, so they never block on, nor observe a partially applied, change.
+ * <p/>
+ * Servers can be marked down and up again without changing the continuum. Lookups skip the points of servers that are
+ * down and continue clockwise to the next live server, so a key only moves while its server is down, and returns to it
+ * as soon as the server is marked up.
+ * <p/>
+ * Every change that can move a key bumps the version of the ring. An optional LookupCache in front of get(String)
+ * tags its entries with the version, so keys looked up repeatedly skip hashing and searching the continuum, and are
+ * never answered from an older ring.
+ * <p/>
+ * Each server in the ring has a small integer id, which it keeps until it is removed. Ids are dense: a new server takes
+ * the lowest id not in use, so they can index an array of per-server resources, such as connection pools, and
+ * getIndex(String) routes a key straight to such an array.
+ * <p/>
+ * A large change of membership can be prepared on an executor with prepare(Set, ExecutorService), which hashes and
+ * merges the new points without holding the ring's lock, then checked and committed in one step, or discarded.
  */
-public class KetamaRing {
+public class KetamaRing implements HashRing {
 
     private static final int POINTS_PER_SERVER = 160;
 
     private ServerHashStrategy serverHashStrategy;
     private HashFunction keyHashFunction;
-    private TreeMap<Long, KetamaServer> continuum;
-    private Set<KetamaServer> servers;
+    // the points of each server in the ring, computed when it is added, so removing it needs no rehashing
+    private Map<KetamaServer, long[]> serverPoints = new HashMap<KetamaServer, long[]>();
+    // each server maps to itself, so the instance on the continuum, and its weight, can be found from an equal server
+    private Map<KetamaServer, KetamaServer> servers;
     private DateTime modifiedDate;
+    private Set<KetamaServer> downServers = new HashSet<KetamaServer>();
+    private Map<KetamaServer, Integer> ids = new HashMap<KetamaServer, Integer>();
+    // ids of removed servers, handed out again lowest first so the ids stay dense
+    private PriorityQueue<Integer> freeIds = new PriorityQueue<Integer>();
+    private RequestStatistics statistics;
+    private LookupCache lookupCache;
+    private boolean offHeap;
+    private volatile RingSnapshot snapshot;
+    // bumped after every change is applied, so a reader that reads it before the snapshot never pairs a new version
+    // with an older ring
+    private volatile long version;
+    // bumped by every change of servers or points, so a staged ring can tell the ring changed after it was prepared
+    private long changeCount;
 
     /**
      * Create a KetamaRing with the specified ServerHashStrategy and Set of servers.
@@ -43,8 +92,8 @@ public class KetamaRing {
 
         this.serverHashStrategy = serverHashStrategy;
         this.keyHashFunction = keyHashFunction;
-        this.servers = new HashSet<KetamaServer>();
-        continuum = new TreeMap<Long, KetamaServer>();
+        this.servers = new HashMap<KetamaServer, KetamaServer>();
+        snapshot = newSnapshot(SortedArrayContinuum.empty());
         add(servers);
     }
 
@@ -62,58 +111,305 @@ public class KetamaRing {
         this(serverHashStrategy, keyHashFunction, Collections.<KetamaServer>emptySet());
     }
 
+    /**
+     * Create a KetamaRing with the specified ServerHashStrategy and Set of servers, computing the points of the servers
+     * in parallel on the provided executor. The points of chunks of servers are computed and sorted concurrently, then
+     * merged into the continuum, so for thousands of servers this is much faster than adding them one by one. The ring
+     * is identical to the one the sequential constructor builds from the same set: where two servers share a point,
+     * the server later in the set's iteration order owns it.
+     *
+     * @param serverHashStrategy the hashing strategy to use when distributing the servers around the ring, and when
+     *                           picking a server given a key; it must be safe to call from several threads
+     * @param keyHashFunction    the HashFunction to be used when mapping keys to points on the ring
+     * @param servers            a Set of servers to on the ring initially
+     * @param executor           the executor to compute the points on; it is not shut down
+     *
+     * @throws java.lang.NullPointerException if serverHashStrategy is null
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.NullPointerException if servers or any server is null
+     * @throws java.lang.NullPointerException if executor is null
+     */
+    public KetamaRing(ServerHashStrategy serverHashStrategy, HashFunction keyHashFunction, Set<KetamaServer> servers,
+                      ExecutorService executor) {
+        Preconditions.checkNotNull(serverHashStrategy, "serverHashStrategy cannot be null");
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+
+        this.serverHashStrategy = serverHashStrategy;
+        this.keyHashFunction = keyHashFunction;
+        this.servers = new HashMap<KetamaServer, KetamaServer>();
+        List<KetamaServer> ordered = new ArrayList<KetamaServer>(servers.size());
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            this.servers.put(server, server);
+            assignId(server);
+            ordered.add(server);
+        }
+
+        long[][] pointsByOrder = new long[ordered.size()][];
+        SortedArrayContinuum built =
+                ContinuumBuilder.build(serverHashStrategy, ordered, POINTS_PER_SERVER, executor, pointsByOrder);
+        for (int i = 0 ; i < pointsByOrder.length ; i++) {
+            serverPoints.put(ordered.get(i), pointsByOrder[i]);
+        }
+
+        if (!ordered.isEmpty()) {
+            modifiedDate = DateTime.now(DateTimeZone.UTC);
+        }
+        snapshot = newSnapshot(built);
+    }
+
+    /**
+     * Create a KetamaRing around a continuum already holding the points of the servers, without rehashing any server.
+     * The points of a server missing from serverPoints are only computed if it is removed or reweighted.
+     */
+    private KetamaRing(ServerHashStrategy serverHashStrategy, HashFunction keyHashFunction,
+                       Collection<KetamaServer> servers, Map<KetamaServer, long[]> serverPoints,
+                       SortedArrayContinuum continuum, DateTime modifiedDate) {
+        this.serverHashStrategy = serverHashStrategy;
+        this.keyHashFunction = keyHashFunction;
+        this.servers = new HashMap<KetamaServer, KetamaServer>();
+        for (KetamaServer server : servers) {
+            this.servers.put(server, server);
+            assignId(server);
+        }
+
+        this.serverPoints.putAll(serverPoints);
+        this.modifiedDate = modifiedDate;
+        snapshot = newSnapshot(continuum);
+    }
+
+    /**
+     * Create a KetamaRing from a snapshot written by writeSnapshot(OutputStream). The points are read as they were
+     * written rather than recomputed, so this is much faster than adding every server. The snapshot is rejected if it
+     * was written for a different ServerHashStrategy or key HashFunction; the points of one server are recomputed
+     * with the provided strategy to verify the placement matches.
+     *
+     * @param in                 the stream to read the snapshot from; it is read to the end but not closed
+     * @param serverHashStrategy the hashing strategy the snapshot was built with
+     * @param keyHashFunction    the HashFunction to be used when mapping keys to points on the ring
+     *
+     * @return a ring with the servers and points of the snapshot
+     *
+     * @throws java.lang.NullPointerException if in is null
+     * @throws java.lang.NullPointerException if serverHashStrategy is null
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.IllegalArgumentException if the snapshot was written for another strategy or hash function
+     * @throws java.io.IOException if the snapshot cannot be read, is truncated or fails its checksum
+     */
+    public static KetamaRing readSnapshot(InputStream in, ServerHashStrategy serverHashStrategy,
+                                          HashFunction keyHashFunction) throws IOException {
+        Preconditions.checkNotNull(in, "in cannot be null");
+        Preconditions.checkNotNull(serverHashStrategy, "serverHashStrategy cannot be null");
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+
+        RingSnapshotFormat.Contents contents =
+                RingSnapshotFormat.read(in, serverHashStrategy, keyHashFunction, POINTS_PER_SERVER);
+        return new KetamaRing(serverHashStrategy, keyHashFunction, Arrays.asList(contents.servers),
+                Collections.<KetamaServer, long[]>emptyMap(), contents.continuum, contents.modifiedDate);
+    }
+
+    /**
+     * Write a snapshot of the ring, which readSnapshot can load without rehashing any server. The snapshot holds the
+     * servers, the points of the continuum, the class names of the strategy and hash function, and a checksum.
+     *
+     * @param out the stream to write the snapshot to; it is flushed but not closed
+     *
+     * @throws java.lang.NullPointerException if out is null
+     * @throws java.io.IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        Preconditions.checkNotNull(out, "out cannot be null");
+
+        RingSnapshot current = snapshot;
+        RingSnapshotFormat.write(out, serverHashStrategy, keyHashFunction, POINTS_PER_SERVER, current.servers,
+                current.continuum, current.modifiedDate);
+    }
+
     /**
      * Synchronize the ring with the provided set of servers. This will remove all servers currently in the ring
      * but not in the provided set, and will add all servers in the provided set but not in the ring. Any servers in
-     * the provided set and currently in the ring will be untouched.
+     * the provided set and currently in the ring will be untouched, unless their weight or labels changed, in which
+     * case they are updated as in update(KetamaServer).
      *
      * @param newServers the set of servers to be used for synchronization; after synchronization is complete this
      *                   set and the set of servers in the ring will match
      */
-    public void synchronizeRing(Set<KetamaServer> newServers) {
+    public synchronized void synchronizeRing(Set<KetamaServer> newServers) {
         Preconditions.checkNotNull(newServers, "newServers cannot be null");
 
         // Make a copy of the Set before altering it. Otherwise you run into a ConcurrentModificationException.
-        Set<KetamaServer> currentServers = new HashSet<KetamaServer>(getServers());
+        Set<KetamaServer> currentServers = new HashSet<KetamaServer>(servers.keySet());
+
+        // collect every changed point, then merge them all into the continuum at once
+        PointChanges changes = new PointChanges();
+        boolean changed = false;
 
         // Add new servers
-        add(Sets.difference(newServers, currentServers));
+        for (KetamaServer server : Sets.difference(newServers, currentServers)) {
+            changed |= addServer(server, changes);
+        }
+
+        // Update servers whose weight or labels changed
+        for (KetamaServer server : Sets.intersection(newServers, currentServers)) {
+            changed |= updateServer(server, changes);
+        }
 
         // Remove missing servers
-        remove(Sets.difference(currentServers, newServers));
+        for (KetamaServer server : Sets.difference(currentServers, newServers)) {
+            changed |= removeServer(server, changes);
+        }
+
+        if (changed) {
+            publish(changes);
+        }
+    }
+
+    /**
+     * Prepare a synchronization of the ring with the provided set of servers on an executor, without changing the
+     * ring. The points of new and reweighted servers are computed and merged into a copy of the continuum in the
+     * background, while lookups and other changes carry on. The resulting StagedRing summarizes what would change and
+     * can be committed, which has the same result as synchronizeRing(Set) would have had, or discarded.
+     *
+     * @param newServers the set of servers the ring should hold once the staged ring is committed
+     * @param executor   the executor to compute the staged ring on
+     *
+     * @return a Future completing with the staged ring
+     *
+     * @throws java.lang.NullPointerException if newServers or any server is null
+     * @throws java.lang.NullPointerException if executor is null
+     */
+    public Future<StagedRing> prepare(Set<KetamaServer> newServers, ExecutorService executor) {
+        Preconditions.checkNotNull(newServers, "newServers cannot be null");
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        for (KetamaServer server : newServers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+        }
+
+        // copy what the staging needs, so it can run without the lock while the ring moves on
+        final Set<KetamaServer> target = ImmutableSet.copyOf(newServers);
+        final Map<KetamaServer, KetamaServer> currentServers;
+        final Map<KetamaServer, long[]> currentPoints;
+        final SortedArrayContinuum continuum;
+        final long currentChangeCount;
+        final boolean currentOffHeap;
+        synchronized (this) {
+            currentServers = new HashMap<KetamaServer, KetamaServer>(servers);
+            currentPoints = new HashMap<KetamaServer, long[]>(serverPoints);
+            continuum = snapshot.continuum;
+            currentChangeCount = changeCount;
+            currentOffHeap = offHeap;
+        }
+
+        return executor.submit(new Callable<StagedRing>() {
+            @Override
+            public StagedRing call() {
+                return stage(target, currentServers, currentPoints, continuum, currentChangeCount, currentOffHeap);
+            }
+        });
+    }
+
+    /**
+     * Returns true if the ring's servers or points changed since a staged ring was prepared.
+     */
+    synchronized boolean isStale(StagedRing staged) {
+        return staged.changeCount != changeCount;
+    }
+
+    /**
+     * Publish a staged ring, as synchronizeRing(Set) would have changed the ring, unless it is stale.
+     *
+     * @return true if the staged ring was committed, false if it is stale
+     */
+    synchronized boolean commit(StagedRing staged) {
+        if (isStale(staged)) {
+            return false;
+        }
+        if (staged.isEmpty()) {
+            return true;
+        }
+
+        // in the order of synchronizeRing, so the servers get the same ids
+        for (KetamaServer server : staged.added) {
+            servers.put(server, server);
+            serverPoints.put(server, staged.points.get(server));
+            assignId(server);
+        }
+        for (KetamaServer server : staged.updated) {
+            // HashMap.put keeps the existing key, so remove first to store the new instance
+            servers.remove(server);
+            servers.put(server, server);
+            serverPoints.remove(server);
+            serverPoints.put(server, staged.points.get(server));
+        }
+        for (KetamaServer server : staged.removed) {
+            servers.remove(server);
+            serverPoints.remove(server);
+            downServers.remove(server);
+            freeIds.add(ids.remove(server));
+        }
+
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+        publish(staged.continuum);
+        return true;
     }
 
     /**
-     * Add a server to the ring at 160 different points
+     * Add a server to the ring at 160 different points per unit of weight. Adding a server already in the ring does
+     * nothing, even if its weight differs; use update(KetamaServer) to change the weight of a server.
      *
      * @param server the server to add to the ring
      *
      * @throws java.lang.NullPointerException if server is null
      */
-    public void add(KetamaServer server) {
+    public synchronized void add(KetamaServer server) {
         Preconditions.checkNotNull(server, "server cannot be null");
 
-        if (contains(server)) {
-            return;
+        PointChanges changes = new PointChanges();
+        if (addServer(server, changes)) {
+            publish(changes);
         }
-
-        serverHashStrategy.addServer(server, continuum, POINTS_PER_SERVER);
-        servers.add(server);
-        modifiedDate = DateTime.now(DateTimeZone.UTC);
     }
 
     /**
-     * Add a set of servers to the ring, each at 160 different points
+     * Add a set of servers to the ring, each at 160 different points per unit of weight
      *
      * @param servers the set of servers to add to the ring
      *
      * @throws java.lang.NullPointerException if servers is null
      */
-    public void add(Set<KetamaServer> servers) {
+    public synchronized void add(Set<KetamaServer> servers) {
         Preconditions.checkNotNull(servers, "servers cannot be null");
 
+        PointChanges changes = new PointChanges();
+        boolean changed = false;
         for (KetamaServer server : servers) {
-            add(server);
+            Preconditions.checkNotNull(server, "server cannot be null");
+            changed |= addServer(server, changes);
+        }
+
+        if (changed) {
+            publish(changes);
+        }
+    }
+
+    /**
+     * Change the weight of a server in the ring to the weight of the provided server. Only the points of that server
+     * are recomputed; every other point on the ring stays where it is. If only the zone or rack of the server changed,
+     * its points stay too, and only replica lookups by FailureDomain see the change. Does nothing if the server is not
+     * in the ring or its weight and labels are unchanged.
+     *
+     * @param server the server to update, carrying its new weight and labels
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public synchronized void update(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        PointChanges changes = new PointChanges();
+        if (updateServer(server, changes)) {
+            publish(changes);
         }
     }
 
@@ -124,16 +420,13 @@ public class KetamaRing {
      *
      * @throws java.lang.NullPointerException if server is null
      */
-    public void remove(KetamaServer server) {
+    public synchronized void remove(KetamaServer server) {
         Preconditions.checkNotNull(server, "server cannot be null");
 
-        if (!contains(server)) {
-            return;
+        PointChanges changes = new PointChanges();
+        if (removeServer(server, changes)) {
+            publish(changes);
         }
-
-        serverHashStrategy.removeServer(server, continuum, POINTS_PER_SERVER);
-        servers.remove(server);
-        modifiedDate = DateTime.now(DateTimeZone.UTC);
     }
 
     /**
@@ -143,12 +436,90 @@ public class KetamaRing {
      *
      * @throws java.lang.NullPointerException if servers is null
      */
-    public void remove(Set<KetamaServer> servers) {
+    public synchronized void remove(Set<KetamaServer> servers) {
         Preconditions.checkNotNull(servers, "servers cannot be null");
 
+        PointChanges changes = new PointChanges();
+        boolean changed = false;
         for (KetamaServer server : servers) {
-            remove(server);
+            Preconditions.checkNotNull(server, "server cannot be null");
+            changed |= removeServer(server, changes);
+        }
+
+        if (changed) {
+            publish(changes);
+        }
+    }
+
+    /**
+     * Stop routing keys to a server without taking it off the continuum. Keys that map to the server are routed to the
+     * next live server clockwise until the server is marked up. Marking a server down does not change its points, so
+     * it is much cheaper than removing it and adding it back.
+     *
+     * @param server the server to mark down
+     *
+     * @return true if the server was up, false if it was already down or is not in the ring
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public synchronized boolean markDown(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        if (!servers.containsKey(server) || !downServers.add(server)) {
+            return false;
+        }
+
+        setDown(snapshot, server, 1);
+        version++;
+        return true;
+    }
+
+    /**
+     * Route keys to a server that was marked down again. Every key that mapped to the server before it was marked down
+     * maps to it again.
+     *
+     * @param server the server to mark up
+     *
+     * @return true if the server was down, false if it was already up or is not in the ring
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public synchronized boolean markUp(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        if (!downServers.remove(server)) {
+            return false;
         }
+
+        setDown(snapshot, server, 0);
+        version++;
+        return true;
+    }
+
+    /**
+     * Returns true if the server is in the ring and marked down.
+     *
+     * @param server the server to check
+     *
+     * @return true if the server is marked down
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public boolean isDown(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        RingSnapshot current = snapshot;
+        Integer serverIndex = current.serverIndexes.get(server);
+        return serverIndex != null && current.down.get(serverIndex) != 0;
+    }
+
+    /**
+     * Get the servers in the ring that are marked down.
+     *
+     * @return an unmodifiable set of the servers marked down
+     */
+    public synchronized Set<KetamaServer> getDownServers() {
+        return ImmutableSet.copyOf(downServers);
     }
 
     /**
@@ -162,7 +533,7 @@ public class KetamaRing {
      */
     public boolean contains(KetamaServer server) {
         Preconditions.checkNotNull(server, "server cannot be null");
-        return servers.contains(server);
+        return snapshot.servers.contains(server);
     }
 
     /**
@@ -175,26 +546,203 @@ public class KetamaRing {
      * server associated with the the first point on the ring if the hash is greater than all points on the rings
      *
      * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the ring is empty or every server is down
      */
     public KetamaServer get(String key) {
         Preconditions.checkNotNull(key, "key cannot be null");
 
-        if (size() == 0) {
+        // read the version before the snapshot, so a cached entry is never tagged newer than the ring it was built from
+        long currentVersion = version;
+        // read the snapshot once so the emptiness check and the lookup see the same ring
+        RingSnapshot current = snapshot;
+        if (current.servers.isEmpty()) {
             throw new NoSuchElementException("The ring is empty!");
         }
 
-        long hashValue = keyHashFunction.calculateHash(key);
+        if (current.lookupCache != null) {
+            return cachedLookup(current, currentVersion, key);
+        }
 
-        // find the next point on the continuum after hashValue
-        Map.Entry<Long, KetamaServer> entry = continuum.ceilingEntry(hashValue);
+        // the continuum wraps to the first point if hashValue is greater than all points
+        return lookup(current, key);
+    }
 
-        // if entry is null then there is no point on the continuum greater than hashValue
-        // so wrap to the beginning and use the first point
-        if (entry == null) {
-            entry = continuum.firstEntry();
+    /**
+     * Get the id of the server for a key. This picks the same server as get(String), but returns its id, so callers can
+     * index an array of per-server resources without hashing or comparing any server. Lookups through this method
+     * bypass the lookup cache.
+     *
+     * @param key the key to be hashed to select a server point on the ring
+     *
+     * @return the id of the server the key maps to
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the ring is empty or every server is down
+     */
+    public int getIndex(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        RingSnapshot current = snapshot;
+        if (current.servers.isEmpty()) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        return current.ids[current.continuum.getServerIndex(lookupIndex(current, key))];
+    }
+
+    /**
+     * Get the id of a server in the ring. A server keeps its id until it is removed, even when it is reweighted.
+     *
+     * @param server the server to get the id of
+     *
+     * @return the id of the server, or -1 if it is not in the ring
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public int getId(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        Integer id = snapshot.serverIds.get(server);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the server with an id.
+     *
+     * @param id the id of the server
+     *
+     * @return the server with the id, or null if no server in the ring has it
+     */
+    public KetamaServer getServer(int id) {
+        KetamaServer[] serversById = snapshot.serversById;
+        return id < 0 || id >= serversById.length ? null : serversById[id];
+    }
+
+    /**
+     * Get the number of ids an array indexed by server id needs to hold. Every id in use is less than this, and it
+     * equals the number of servers unless servers were removed and their ids not yet reused.
+     *
+     * @return one more than the highest id in use, or 0 if the ring is empty
+     */
+    public int getIdLimit() {
+        return snapshot.serversById.length;
+    }
+
+    /**
+     * Get the distinct servers a key should be replicated to. The first server is the one get(String) returns, and the
+     * others are the next distinct servers found walking clockwise around the ring from the point of the key, which
+     * are the servers the key would move to if the ones before them were removed. Servers marked down are skipped. No
+     * objects are allocated.
+     *
+     * @param key     the key to be hashed to select a server point on the ring
+     * @param servers the array to fill; its length is the number of servers wanted
+     *
+     * @return the number of servers written to the array, which is the smaller of its length and the number of live
+     * servers
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.lang.NullPointerException if servers is null
+     */
+    public int getN(String key, KetamaServer[] servers) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        RingSnapshot current = snapshot;
+        return current.continuum.getDistinct(keyHashFunction.calculateHash(key), servers, current.down);
+    }
+
+    /**
+     * Get servers in distinct failure domains a key should be replicated to, so that losing one zone or rack loses at
+     * most one copy. The first server is the one get(String) returns, and each following one is the first live server
+     * clockwise from the key in a domain none of the servers before it is in. Like the walk of getN(String,
+     * KetamaServer[]), this only changes for a key when a server near it on the ring changes. Servers without the
+     * label of the domain are each in a domain of their own.
+     * <p/>
+     * The walk jumps over runs of points in a domain already taken using an index built for the domain at the first
+     * such lookup after each change to the ring; after that, no objects are allocated.
+     *
+     * @param key     the key to be hashed to select a server point on the ring
+     * @param servers the array to fill; its length is the number of servers wanted
+     * @param domain  the level of failure domain the servers must be distinct at
+     *
+     * @return the number of servers written to the array, which is the smaller of its length and the number of
+     * domains with a live server
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.lang.NullPointerException if servers is null
+     * @throws java.lang.NullPointerException if domain is null
+     */
+    public int getN(String key, KetamaServer[] servers, FailureDomain domain) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+        Preconditions.checkNotNull(domain, "domain cannot be null");
+
+        RingSnapshot current = snapshot;
+        return current.continuum.getDistinct(keyHashFunction.calculateHash(key), servers, current.down, domain);
+    }
+
+    /**
+     * Get the server for each of a batch of keys. This is equivalent to calling get(String) for every key, but all keys
+     * are routed against the same state of the ring and no objects are allocated.
+     *
+     * @param keys    the keys to be hashed to select server points on the ring
+     * @param servers the array to fill; servers[i] is set to the server for keys[i]
+     *
+     * @throws java.lang.NullPointerException if keys, servers or any key is null
+     * @throws java.lang.IllegalArgumentException if servers is shorter than keys
+     * @throws java.util.NoSuchElementException if the ring is empty or every server is down, and keys is not empty
+     */
+    public void getAll(String[] keys, KetamaServer[] servers) {
+        Preconditions.checkNotNull(keys, "keys cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+        Preconditions.checkArgument(servers.length >= keys.length, "servers must be at least as long as keys");
+
+        if (keys.length == 0) {
+            return;
+        }
+
+        RingSnapshot current = snapshot;
+        if (current.servers.isEmpty()) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        for (int i = 0 ; i < keys.length ; i++) {
+            Preconditions.checkNotNull(keys[i], "key cannot be null");
+            servers[i] = lookup(current, keys[i]);
+        }
+    }
+
+    /**
+     * Group a batch of keys by the server each of them maps to. All keys are routed against the same state of the ring,
+     * and the keys for each server keep the iteration order of the provided collection.
+     *
+     * @param keys the keys to be hashed to select server points on the ring
+     *
+     * @return the keys grouped by the server they map to
+     *
+     * @throws java.lang.NullPointerException if keys or any key is null
+     * @throws java.util.NoSuchElementException if the ring is empty or every server is down, and keys is not empty
+     */
+    public ListMultimap<KetamaServer, String> getAll(Collection<String> keys) {
+        Preconditions.checkNotNull(keys, "keys cannot be null");
+
+        RingSnapshot current = snapshot;
+        if (keys.isEmpty()) {
+            return ArrayListMultimap.create();
+        }
+
+        if (current.servers.isEmpty()) {
+            throw new NoSuchElementException("The ring is empty!");
         }
 
-        return entry.getValue();
+        int serverCount = current.servers.size();
+        ListMultimap<KetamaServer, String> grouped = ArrayListMultimap.create(serverCount, keys.size() / serverCount + 1);
+        for (String key : keys) {
+            Preconditions.checkNotNull(key, "key cannot be null");
+            grouped.put(lookup(current, key), key);
+        }
+
+        return grouped;
     }
 
     /**
@@ -203,7 +751,116 @@ public class KetamaRing {
      * @return an unmodifiable set of servers currently in the ring
      */
     public Set<KetamaServer> getServers() {
-        return Collections.unmodifiableSet(servers);
+        return snapshot.servers;
+    }
+
+    /**
+     * Get the continuum of the ring as it is now. The continuum is immutable, so later changes to the ring are not
+     * reflected in it.
+     *
+     * @return the current continuum of the ring
+     */
+    public SortedArrayContinuum getContinuum() {
+        return snapshot.continuum;
+    }
+
+    /**
+     * Start recording every lookup made through get(String) and getAll in the provided statistics, or stop recording
+     * if it is null. Lookups made while no statistics are set only pay for a null check. The statistics are carried
+     * by the published snapshot, along with the counter of every server, so lookups never search for a counter.
+     *
+     * @param statistics the statistics to record lookups in, or null to stop recording
+     */
+    public synchronized void setStatistics(RequestStatistics statistics) {
+        this.statistics = statistics;
+        snapshot = newSnapshot(snapshot.continuum);
+        // cached entries carry the counters of the old statistics
+        version++;
+    }
+
+    /**
+     * Get the statistics lookups are recorded in.
+     *
+     * @return the statistics lookups are recorded in, or null if they are not recorded
+     */
+    public RequestStatistics getStatistics() {
+        return snapshot.statistics;
+    }
+
+    /**
+     * Answer get(String) from the provided cache when it holds the key for the current version of the ring, or stop
+     * caching if it is null. The cache is cleared when it is attached. Batch lookups and getN bypass the cache.
+     *
+     * @param lookupCache the cache to put in front of get(String), or null to stop caching
+     *
+     * @throws java.lang.IllegalArgumentException if the cache is already attached to another ring
+     */
+    public synchronized void setLookupCache(LookupCache lookupCache) {
+        if (lookupCache != null) {
+            lookupCache.attach(this);
+            lookupCache.clear();
+        }
+        this.lookupCache = lookupCache;
+        snapshot = newSnapshot(snapshot.continuum);
+    }
+
+    /**
+     * Get the cache in front of get(String), which counts its hits and misses.
+     *
+     * @return the cache in front of get(String), or null if lookups are not cached
+     */
+    public LookupCache getLookupCache() {
+        return snapshot.lookupCache;
+    }
+
+    /**
+     * Keep the continuum of the ring in a direct buffer outside of the heap, or move it back onto the heap. Every
+     * continuum the ring publishes afterwards is kept the same way. An off-heap ring leaves the garbage collector only
+     * a handful of small objects however many points it has; lookups give the same results either way.
+     *
+     * @param offHeap true to keep the continuum off the heap, false to keep it on the heap
+     */
+    public synchronized void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        snapshot = newSnapshot(store(snapshot.continuum));
+    }
+
+    /**
+     * Returns true if the ring keeps its continuum outside of the heap. An empty continuum has no points to keep, and
+     * is always on the heap.
+     *
+     * @return true if the ring is set to keep its continuum off the heap
+     */
+    public synchronized boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Get the version of the ring, which is bumped by every change that can move a key: adding, removing or
+     * reweighting servers, marking them down or up, and attaching statistics.
+     *
+     * @return the version of the ring
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the ServerHashStrategy used to place servers on the ring.
+     *
+     * @return the ServerHashStrategy of the ring
+     */
+    public ServerHashStrategy getServerHashStrategy() {
+        return serverHashStrategy;
+    }
+
+    /**
+     * Get the HashFunction used to map keys to points on the ring.
+     *
+     * @return the key HashFunction of the ring
+     */
+    public HashFunction getKeyHashFunction() {
+        return keyHashFunction;
     }
 
     /**
@@ -221,7 +878,352 @@ public class KetamaRing {
      * @return the last datetime a server was added or removed
      */
     public DateTime getModifiedDate() {
-        return modifiedDate;
+        return snapshot.modifiedDate;
+    }
+
+    /**
+     * Place a server on the continuum by recording its points in the changes, without publishing a new snapshot.
+     * Callers must hold the ring's lock.
+     *
+     * @return true if the server was added, false if it was already in the ring
+     */
+    private boolean addServer(KetamaServer server, PointChanges changes) {
+        if (servers.containsKey(server)) {
+            return false;
+        }
+
+        putPoints(server, changes);
+        servers.put(server, server);
+        assignId(server);
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+        return true;
+    }
+
+    /**
+     * Take a server off the continuum by recording the removal of its points in the changes, without publishing a new
+     * snapshot. Callers must hold the ring's lock.
+     *
+     * @return true if the server was removed, false if it was not in the ring
+     */
+    private boolean removeServer(KetamaServer server, PointChanges changes) {
+        // remove the instance that was added, since its weight decides which points it has
+        KetamaServer current = servers.remove(server);
+        if (current == null) {
+            return false;
+        }
+
+        removePoints(current, changes);
+        downServers.remove(current);
+        freeIds.add(ids.remove(current));
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+        return true;
+    }
+
+    /**
+     * Move the points of a server in the ring to match the weight of the provided server, or only hand them to the
+     * provided instance if just its labels changed, by recording them in the changes, without publishing a new
+     * snapshot. Callers must hold the ring's lock.
+     *
+     * @return true if the server was updated, false if it is not in the ring or its weight and labels are unchanged
+     */
+    private boolean updateServer(KetamaServer server, PointChanges changes) {
+        KetamaServer current = servers.get(server);
+        if (current == null || (current.getWeight() == server.getWeight() && current.hasSameLabels(server))) {
+            return false;
+        }
+
+        if (current.getWeight() != server.getWeight()) {
+            removePoints(current, changes);
+            putPoints(server, changes);
+        } else {
+            // the points stay where they are, owned by the new instance; putting them again would take back any point
+            // a colliding server added later took over
+            long[] points = serverPoints.remove(current);
+            if (points != null) {
+                serverPoints.put(server, points);
+            }
+            changes.replace(server);
+        }
+
+        // HashMap.put keeps the existing key, so remove first to store the new instance as both key and value
+        servers.remove(server);
+        servers.put(server, server);
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+        return true;
+    }
+
+    /**
+     * Give a server the lowest id not in use. Callers must hold the ring's lock.
+     */
+    private void assignId(KetamaServer server) {
+        ids.put(server, freeIds.isEmpty() ? ids.size() : freeIds.poll());
+    }
+
+    /**
+     * Compute the points of a server, remember them, and record them in the changes as owned by the server, taking over
+     * any point another server has. Callers must hold the ring's lock.
+     */
+    private void putPoints(KetamaServer server, PointChanges changes) {
+        long[] points = placePoints(server);
+        serverPoints.put(server, points);
+        changes.put(server, points);
+    }
+
+    /**
+     * Record the removal of every point of a server in the changes, and forget them. As with
+     * ServerHashStrategy.removeServer, a point the server shares with another server is removed too. The points are
+     * only computed if the server came from a snapshot and was never moved. Callers must hold the ring's lock.
+     */
+    private void removePoints(KetamaServer server, PointChanges changes) {
+        long[] points = serverPoints.remove(server);
+        changes.remove(points != null ? points : placePoints(server));
+    }
+
+    /**
+     * Compute the distinct points of a server in ascending order.
+     */
+    private long[] placePoints(KetamaServer server) {
+        TreeMap<Long, KetamaServer> placed = new TreeMap<Long, KetamaServer>();
+        serverHashStrategy.addServer(server, placed, POINTS_PER_SERVER);
+        return Longs.toArray(placed.keySet());
+    }
+
+    /**
+     * Merge the changes into the current continuum, build a snapshot of it and the current servers, and make it visible
+     * to readers. Callers must hold the ring's lock.
+     */
+    private void publish(PointChanges changes) {
+        publish(snapshot.continuum.apply(changes));
+    }
+
+    /**
+     * Build a snapshot of a new continuum and the current servers, and make it visible to readers. Callers must hold
+     * the ring's lock.
+     */
+    private void publish(SortedArrayContinuum continuum) {
+        snapshot = newSnapshot(store(continuum));
+        version++;
+        changeCount++;
+    }
+
+    /**
+     * Compute the continuum and the summary of a synchronization with the target servers from copies of the ring's
+     * state, making the same changes in the same order as synchronizeRing(Set). Does not touch the ring's own state,
+     * so the lock is not needed.
+     */
+    private StagedRing stage(Set<KetamaServer> target, Map<KetamaServer, KetamaServer> currentServers,
+                             Map<KetamaServer, long[]> currentPoints, SortedArrayContinuum continuum, long changeCount,
+                             boolean offHeap) {
+        PointChanges changes = new PointChanges();
+        Set<KetamaServer> added = new LinkedHashSet<KetamaServer>();
+        Set<KetamaServer> updated = new LinkedHashSet<KetamaServer>();
+        Set<KetamaServer> removed = new LinkedHashSet<KetamaServer>();
+        Map<KetamaServer, long[]> points = new HashMap<KetamaServer, long[]>();
+
+        for (KetamaServer server : Sets.difference(target, currentServers.keySet())) {
+            long[] placed = placePoints(server);
+            changes.put(server, placed);
+            points.put(server, placed);
+            added.add(server);
+        }
+
+        for (KetamaServer server : Sets.intersection(target, currentServers.keySet())) {
+            KetamaServer current = currentServers.get(server);
+            if (current.getWeight() == server.getWeight() && current.hasSameLabels(server)) {
+                continue;
+            }
+
+            long[] placed = pointsOf(current, currentPoints);
+            if (current.getWeight() != server.getWeight()) {
+                changes.remove(placed);
+                placed = placePoints(server);
+                changes.put(server, placed);
+            } else {
+                changes.replace(server);
+            }
+            points.put(server, placed);
+            updated.add(server);
+        }
+
+        for (KetamaServer server : Sets.difference(currentServers.keySet(), target)) {
+            KetamaServer current = currentServers.get(server);
+            changes.remove(pointsOf(current, currentPoints));
+            removed.add(current);
+        }
+
+        SortedArrayContinuum staged = continuum.apply(changes);
+        staged = offHeap ? staged.toOffHeap() : staged.toOnHeap();
+
+        // the preview keeps the points of every server, so changing it never rehashes
+        Map<KetamaServer, long[]> previewPoints = new HashMap<KetamaServer, long[]>(currentPoints);
+        previewPoints.keySet().removeAll(removed);
+        previewPoints.keySet().removeAll(updated);
+        previewPoints.putAll(points);
+
+        // the continuum owns its points with the ring's instances of unchanged servers, not the equal ones in target
+        List<KetamaServer> previewServers = new ArrayList<KetamaServer>(target.size());
+        for (KetamaServer server : target) {
+            previewServers.add(points.containsKey(server) ? server : currentServers.get(server));
+        }
+        KetamaRing preview = new KetamaRing(serverHashStrategy, keyHashFunction, previewServers, previewPoints, staged,
+                DateTime.now(DateTimeZone.UTC));
+
+        return new StagedRing(this, changeCount, added, updated, removed, points, staged, continuum.diff(staged),
+                preview);
+    }
+
+    /**
+     * Get the points of a server from a copy of the ring's points, computing them if the server came from a snapshot
+     * and was never moved.
+     */
+    private long[] pointsOf(KetamaServer server, Map<KetamaServer, long[]> points) {
+        long[] serverPoints = points.get(server);
+        return serverPoints != null ? serverPoints : placePoints(server);
+    }
+
+    /**
+     * Move a continuum on or off the heap as the ring is set to keep it. Callers must hold the ring's lock.
+     */
+    private SortedArrayContinuum store(SortedArrayContinuum continuum) {
+        return offHeap ? continuum.toOffHeap() : continuum.toOnHeap();
+    }
+
+    /**
+     * Build a snapshot of the provided continuum with the current servers, marking down the servers that are down.
+     * Callers must hold the ring's lock.
+     */
+    private RingSnapshot newSnapshot(SortedArrayContinuum continuum) {
+        ImmutableMap.Builder<KetamaServer, Integer> serverIndexes = ImmutableMap.builder();
+        AtomicIntegerArray down = new AtomicIntegerArray(continuum.getServerCount());
+        StripedCounter[] counters = statistics == null ? null : new StripedCounter[continuum.getServerCount()];
+        int[] serverIdsByIndex = new int[continuum.getServerCount()];
+        for (int i = 0 ; i < continuum.getServerCount() ; i++) {
+            KetamaServer server = continuum.getServerAt(i);
+            serverIndexes.put(server, i);
+            serverIdsByIndex[i] = ids.get(server);
+            if (downServers.contains(server)) {
+                down.set(i, 1);
+            }
+            if (counters != null) {
+                counters[i] = statistics.counterFor(server);
+            }
+        }
+
+        // while freed ids wait to be reused, the highest id in use can exceed the number of servers
+        int idLimit = 0;
+        for (int id : ids.values()) {
+            idLimit = Math.max(idLimit, id + 1);
+        }
+        KetamaServer[] serversById = new KetamaServer[idLimit];
+        for (Map.Entry<KetamaServer, Integer> entry : ids.entrySet()) {
+            serversById[entry.getValue()] = servers.get(entry.getKey());
+        }
+
+        return new RingSnapshot(continuum, ImmutableSet.copyOf(servers.values()), modifiedDate, serverIndexes.build(),
+                down, statistics, counters, lookupCache, ImmutableMap.copyOf(ids), serverIdsByIndex, serversById);
+    }
+
+    /**
+     * Flag a server up or down in a snapshot. Callers must hold the ring's lock.
+     */
+    private static void setDown(RingSnapshot snapshot, KetamaServer server, int down) {
+        Integer serverIndex = snapshot.serverIndexes.get(server);
+        if (serverIndex != null) {
+            snapshot.down.set(serverIndex, down);
+        }
+    }
+
+    /**
+     * Find the live server a key maps to in a snapshot, and record the lookup if the snapshot has statistics.
+     *
+     * @throws java.util.NoSuchElementException if every server is down
+     */
+    private KetamaServer lookup(RingSnapshot snapshot, String key) {
+        return snapshot.continuum.getServer(lookupIndex(snapshot, key));
+    }
+
+    /**
+     * Find the index of the point of the live server a key maps to in a snapshot, and record the lookup if the
+     * snapshot has statistics.
+     *
+     * @throws java.util.NoSuchElementException if every server is down
+     */
+    private int lookupIndex(RingSnapshot snapshot, String key) {
+        long hashValue = keyHashFunction.calculateHash(key);
+        int index = snapshot.continuum.indexOfLive(hashValue, snapshot.down);
+        if (index < 0) {
+            throw new NoSuchElementException("All servers are down!");
+        }
+
+        if (snapshot.statistics != null) {
+            snapshot.statistics.record(snapshot.counters[snapshot.continuum.getServerIndex(index)], key, hashValue);
+        }
+        return index;
+    }
+
+    /**
+     * Answer a lookup from the cache if it holds the key for the provided version of the ring, or look it up in the
+     * snapshot and cache it, tagged with that version. Cached lookups are recorded in the statistics like any other.
+     *
+     * @throws java.util.NoSuchElementException if every server is down
+     */
+    private KetamaServer cachedLookup(RingSnapshot snapshot, long version, String key) {
+        LookupCache.Entry entry = snapshot.lookupCache.get(key, version);
+        if (entry == null) {
+            long hashValue = keyHashFunction.calculateHash(key);
+            int index = snapshot.continuum.indexOfLive(hashValue, snapshot.down);
+            if (index < 0) {
+                throw new NoSuchElementException("All servers are down!");
+            }
+
+            StripedCounter counter =
+                    snapshot.counters == null ? null : snapshot.counters[snapshot.continuum.getServerIndex(index)];
+            entry = new LookupCache.Entry(key, hashValue, snapshot.continuum.getServer(index), counter, version);
+            snapshot.lookupCache.put(entry);
+        }
+
+        if (snapshot.statistics != null && entry.counter != null) {
+            snapshot.statistics.record(entry.counter, key, entry.keyHash);
+        }
+        return entry.server;
+    }
+
+    /**
+     * An immutable view of the ring at one point in time.
+     */
+    private static final class RingSnapshot {
+
+        private final SortedArrayContinuum continuum;
+        private final Set<KetamaServer> servers;
+        private final DateTime modifiedDate;
+        // the index of each server in the server table of the continuum, which also indexes the down flags
+        private final Map<KetamaServer, Integer> serverIndexes;
+        private final AtomicIntegerArray down;
+        // the statistics lookups are recorded in, if any, with the counter of each server by server index
+        private final RequestStatistics statistics;
+        private final StripedCounter[] counters;
+        private final LookupCache lookupCache;
+        // the id of each server, the id of each server by server index, and each server by id
+        private final Map<KetamaServer, Integer> serverIds;
+        private final int[] ids;
+        private final KetamaServer[] serversById;
+
+        private RingSnapshot(SortedArrayContinuum continuum, Set<KetamaServer> servers, DateTime modifiedDate,
+                             Map<KetamaServer, Integer> serverIndexes, AtomicIntegerArray down,
+                             RequestStatistics statistics, StripedCounter[] counters, LookupCache lookupCache,
+                             Map<KetamaServer, Integer> serverIds, int[] ids, KetamaServer[] serversById) {
+            this.continuum = continuum;
+            this.servers = servers;
+            this.modifiedDate = modifiedDate;
+            this.serverIndexes = serverIndexes;
+            this.down = down;
+            this.statistics = statistics;
+            this.counters = counters;
+            this.lookupCache = lookupCache;
+            this.serverIds = serverIds;
+            this.ids = ids;
+            this.serversById = serversById;
+        }
     }
 
 }
@@ -1,21 +1,34 @@
 package com.wayfair.common.hash.ketama;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 /**
- * A Ketama server, with a hostname and port.
+ * A Ketama server, with a hostname, port and weight, and optionally the zone and rack it is in.
+ * <p/>
+ * Servers are identified by name, hostname and port. The weight only scales the number of points the server gets on a
+ * continuum, and the zone and rack only group servers into failure domains for replica placement, so two servers
+ * differing only by weight or labels are equal.
+ * <p/>
+ * Servers are immutable. The hash code is computed once, when the server is created, so hashing a server into a set or
+ * map costs a field read, and equals compares hash codes before it compares any string.
  */
 public class KetamaServer {
 
-    private String hostname;
-    private int port;
-    private String name;
+    public static final double DEFAULT_WEIGHT = 1.0;
+
+    private final String hostname;
+    private final int port;
+    private final String name;
+    private final double weight;
+    private final String zone;
+    private final String rack;
+    private final int hashCode;
 
     /**
-     * Instantiate a new KetamaServer.
+     * Instantiate a new KetamaServer with the default weight of 1.
      *
      * @param name the logical name of the server
      * @param hostname the hostname of the server
@@ -25,12 +38,62 @@ public class KetamaServer {
      * @throws java.lang.IllegalArgumentException if hostname is blank
      */
     public KetamaServer(String name, String hostname, int port) {
+        this(name, hostname, port, DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Instantiate a new KetamaServer with a weight. A server with weight 2 gets twice the points on a continuum, and so
+     * roughly twice the keys, of a server with weight 1. Weights are absolute rather than relative to the other
+     * servers, so changing the weight of one server does not move the points of any other.
+     *
+     * @param name the logical name of the server
+     * @param hostname the hostname of the server
+     * @param port the port of the server
+     * @param weight the weight of the server; must be greater than 0
+     *
+     * @throws java.lang.IllegalArgumentException if name is blank
+     * @throws java.lang.IllegalArgumentException if hostname is blank
+     * @throws java.lang.IllegalArgumentException if weight is not greater than 0
+     */
+    public KetamaServer(String name, String hostname, int port, double weight) {
+        this(name, hostname, port, weight, null, null);
+    }
+
+    /**
+     * Instantiate a new KetamaServer with a weight and the failure domains it is in. Replica lookups by FailureDomain
+     * avoid placing two copies of a key in the same zone or the same rack. Racks are named within their zone, so
+     * racks of the same name in different zones are different racks.
+     *
+     * @param name the logical name of the server
+     * @param hostname the hostname of the server
+     * @param port the port of the server
+     * @param weight the weight of the server; must be greater than 0
+     * @param zone the zone, e.g. the datacenter, of the server, or null if it has none
+     * @param rack the rack of the server, or null if it has none
+     *
+     * @throws java.lang.IllegalArgumentException if name is blank
+     * @throws java.lang.IllegalArgumentException if hostname is blank
+     * @throws java.lang.IllegalArgumentException if weight is not greater than 0
+     * @throws java.lang.IllegalArgumentException if zone or rack is blank but not null
+     */
+    public KetamaServer(String name, String hostname, int port, double weight, String zone, String rack) {
         Preconditions.checkArgument(StringUtils.isNotBlank(name), "name cannot be blank");
         Preconditions.checkArgument(StringUtils.isNotBlank(hostname), "hostname cannot be blank");
+        Preconditions.checkArgument(weight > 0 && !Double.isInfinite(weight), "weight must be greater than 0");
+        Preconditions.checkArgument(zone == null || StringUtils.isNotBlank(zone), "zone cannot be blank");
+        Preconditions.checkArgument(rack == null || StringUtils.isNotBlank(rack), "rack cannot be blank");
 
         this.name = name;
         this.hostname = hostname;
         this.port = port;
+        this.weight = weight;
+        this.zone = zone;
+        this.rack = rack;
+        this.hashCode = new HashCodeBuilder()
+                .append(name)
+                .append(hostname)
+                .append(port)
+                .build();
     }
 
     public String getName() {
@@ -45,16 +108,64 @@ public class KetamaServer {
         return port;
     }
 
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the zone of the server, or null if it has none
+     */
+    public String getZone() {
+        return zone;
+    }
+
+    /**
+     * @return the rack of the server, or null if it has none
+     */
+    public String getRack() {
+        return rack;
+    }
+
+    /**
+     * Check whether another server has the same zone and rack as this one.
+     *
+     * @param server the server to compare with
+     *
+     * @return true if both servers have the same labels
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public boolean hasSameLabels(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        return Objects.equal(zone, server.zone) && Objects.equal(rack, server.rack);
+    }
+
+    /**
+     * Get the number of points this server should have on a continuum, proportional to its weight. A server always
+     * gets at least one point.
+     *
+     * @param pointsPerServer the number of points for a server of weight 1
+     *
+     * @return the number of points for this server
+     */
+    public int getPoints(int pointsPerServer) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(pointsPerServer * weight)));
+    }
+
     @Override
     public boolean equals(Object object) {
+        if (object == this) {
+            return true;
+        }
+
         if (object instanceof KetamaServer) {
             KetamaServer server = (KetamaServer) object;
 
-            return new EqualsBuilder()
-                    .append(server.getName(), getName())
-                    .append(server.getHostname(), getHostname())
-                    .append(server.getPort(), getPort())
-                    .build();
+            return server.hashCode == hashCode
+                    && server.port == port
+                    && server.name.equals(name)
+                    && server.hostname.equals(hostname);
         }
 
         return false;
@@ -62,11 +173,7 @@ public class KetamaServer {
 
     @Override
     public int hashCode() {
-        return new HashCodeBuilder()
-                .append(getName())
-                .append(getHostname())
-                .append(getPort())
-                .build();
+        return hashCode;
     }
 
     @Override
@@ -0,0 +1,179 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded cache of the server each key maps to, which a KetamaRing consults before hashing a key. Attach it to a
+ * ring with KetamaRing.setLookupCache(LookupCache); a ring without a cache pays nothing for it.
+ * <p/>
+ * The cache holds a fixed number of entries, rounded up to a power of two, and never grows. It is two-way set
+ * associative: each key can only live in one of two slots picked by its hashCode. A new entry takes the first slot
+ * and pushes the entry there to the second, evicting the older entry of the two, so the cache approximates LRU
+ * without any bookkeeping on a hit. Each entry costs about 48 bytes plus its key.
+ * <p/>
+ * Every entry is tagged with the version of the ring it was computed against. The ring bumps its version on every
+ * change that can move a key, including marking a server down or up and attaching statistics, so an entry from an
+ * older ring is never served; it is replaced the next time its key is looked up.
+ * <p/>
+ * This class is thread-safe. Entries are immutable and are written to their slots without locking, so concurrent
+ * misses may overwrite each other's entries, which only costs a later miss. A cache may only be attached to one ring.
+ */
+public final class LookupCache {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int MAX_CAPACITY = 1 << 24;
+
+    private final Entry[] entries;
+    private final int setMask;
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private Object ring;
+
+    /**
+     * Create a cache of DEFAULT_CAPACITY entries.
+     */
+    public LookupCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a cache of the provided number of entries, rounded up to a power of two of at least 2.
+     *
+     * @param capacity the number of entries the cache holds
+     *
+     * @throws java.lang.IllegalArgumentException if capacity is less than 1 or greater than MAX_CAPACITY
+     */
+    public LookupCache(int capacity) {
+        Preconditions.checkArgument(capacity > 0 && capacity <= MAX_CAPACITY,
+                "capacity must be between 1 and " + MAX_CAPACITY);
+
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.entries = new Entry[size];
+        // each set is a pair of adjacent slots, and the mask picks the first slot of a set
+        this.setMask = size - 2;
+    }
+
+    /**
+     * @return the number of entries the cache holds
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups the cache could not answer, because the key was not cached or was cached against
+     * an older version of the ring
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the share of lookups answered from the cache, or 0 if there were none
+     */
+    public double getHitRate() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0 : hitCount / (double) total;
+    }
+
+    /**
+     * Drop every entry. The hit and miss counts are kept.
+     */
+    public void clear() {
+        for (int i = 0 ; i < entries.length ; i++) {
+            entries[i] = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "capacity=" + getCapacity() + ", hits=" + getHits() + ", misses=" + getMisses();
+    }
+
+    /**
+     * Bind the cache to the ring it is attached to. Entries are only valid for the ring whose version they carry, so
+     * a cache cannot be shared.
+     *
+     * @throws java.lang.IllegalArgumentException if the cache is already attached to another ring
+     */
+    synchronized void attach(Object owner) {
+        Preconditions.checkArgument(ring == null || ring == owner, "lookupCache is already attached to another ring");
+        ring = owner;
+    }
+
+    /**
+     * Find the entry of a key computed against a version of the ring, and count a hit or a miss.
+     *
+     * @return the entry, or null if the key is not cached against that version
+     */
+    Entry get(String key, long version) {
+        int set = set(key);
+        Entry entry = entries[set];
+        if (entry == null || !entry.matches(key, version)) {
+            entry = entries[set + 1];
+            if (entry == null || !entry.matches(key, version)) {
+                misses.increment();
+                return null;
+            }
+        }
+
+        hits.increment();
+        return entry;
+    }
+
+    /**
+     * Cache an entry, evicting the older entry of its set.
+     */
+    void put(Entry entry) {
+        int set = set(entry.key);
+        Entry first = entries[set];
+        // a stale entry of the same key is replaced in place rather than pushed into the other slot
+        if (first != null && !first.key.equals(entry.key)) {
+            entries[set + 1] = first;
+        }
+        entries[set] = entry;
+    }
+
+    private int set(String key) {
+        int hash = key.hashCode();
+        // String hashes of similar keys differ in their low bits mostly by small steps, so fold in the high bits
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash & setMask;
+    }
+
+    /**
+     * The server a key mapped to in one version of the ring, along with what the ring needs to record a cached lookup
+     * in its statistics.
+     */
+    static final class Entry {
+
+        final String key;
+        final long keyHash;
+        final KetamaServer server;
+        // the counter of the server in the ring's statistics, or null if the ring had none
+        final StripedCounter counter;
+        final long version;
+
+        Entry(String key, long keyHash, KetamaServer server, StripedCounter counter, long version) {
+            this.key = key;
+            this.keyHash = keyHash;
+            this.server = server;
+            this.counter = counter;
+            this.version = version;
+        }
+
+        private boolean matches(String key, long version) {
+            return this.version == version && this.key.equals(key);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Throwables;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes MD5 digests the way libketama does, reusing one MessageDigest and its buffers per thread. Input characters
+ * are encoded as UTF-8 straight into a reusable buffer, so digesting allocates nothing once the buffer has grown to the
+ * longest input seen by the thread.
+ */
+final class MD5Digester {
+
+    static final int POINTS_PER_DIGEST = 4;
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final ThreadLocal<MD5Digester> DIGESTERS = new ThreadLocal<MD5Digester>() {
+        @Override
+        protected MD5Digester initialValue() {
+            return new MD5Digester();
+        }
+    };
+
+    private final MessageDigest messageDigest;
+    private final byte[] digest = new byte[DIGEST_LENGTH];
+    private byte[] buffer = new byte[64];
+
+    private MD5Digester() {
+        try {
+            messageDigest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Get the digester of the current thread.
+     */
+    static MD5Digester get() {
+        return DIGESTERS.get();
+    }
+
+    /**
+     * Digest the UTF-8 bytes of input. The returned array is reused by the next call on this thread.
+     */
+    byte[] digest(CharSequence input) {
+        return digest(encode(input, 0));
+    }
+
+    /**
+     * Digest the UTF-8 bytes of prefix + "-" + suffix, as libketama does for each hash of a server. The returned array
+     * is reused by the next call on this thread.
+     */
+    byte[] digest(CharSequence prefix, int suffix) {
+        int length = encode(prefix, 0);
+        length = ensureCapacity(length, 12);
+        buffer[length++] = '-';
+
+        // write the decimal digits of suffix, which is never negative
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + suffix % 10);
+            suffix /= 10;
+        } while (suffix > 0);
+
+        for (int i = start, j = length - 1 ; i < j ; i++, j--) {
+            byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+
+        return digest(length);
+    }
+
+    /**
+     * Get one of the four little-endian unsigned 32-bit points held by a digest.
+     *
+     * @param digest the digest
+     * @param index  the index of the point, between 0 and 3
+     */
+    static long point(byte[] digest, int index) {
+        int offset = index * 4;
+        return ((digest[offset + 3] & 0xffL) << 24)
+                | ((digest[offset + 2] & 0xffL) << 16)
+                | ((digest[offset + 1] & 0xffL) << 8)
+                | (digest[offset] & 0xffL);
+    }
+
+    private byte[] digest(int length) {
+        messageDigest.update(buffer, 0, length);
+        try {
+            messageDigest.digest(digest, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw Throwables.propagate(e);
+        }
+
+        return digest;
+    }
+
+    /**
+     * Encode input as UTF-8 into the buffer starting at offset, replacing unpaired surrogates with '?' as
+     * String.getBytes("UTF-8") does.
+     *
+     * @return the offset after the last encoded byte
+     */
+    private int encode(CharSequence input, int offset) {
+        int length = input.length();
+        offset = ensureCapacity(offset, length * 3);
+
+        for (int i = 0 ; i < length ; i++) {
+            char c = input.charAt(i);
+
+            if (c < 0x80) {
+                buffer[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[offset++] = (byte) (0xc0 | (c >> 6));
+                buffer[offset++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                buffer[offset++] = (byte) (0xe0 | (c >> 12));
+                buffer[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[offset++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1))) {
+                // a surrogate pair is two chars encoded as four bytes, so the capacity reserved above is enough
+                int codePoint = Character.toCodePoint(c, input.charAt(++i));
+                buffer[offset++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                buffer[offset++] = '?';
+            }
+        }
+
+        return offset;
+    }
+
+    /**
+     * Make sure the buffer can hold extra more bytes after offset, keeping its contents.
+     *
+     * @return offset
+     */
+    private int ensureCapacity(int offset, int extra) {
+        if (offset + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, offset + extra)];
+            System.arraycopy(buffer, 0, grown, 0, offset);
+            buffer = grown;
+        }
+
+        return offset;
+    }
+}
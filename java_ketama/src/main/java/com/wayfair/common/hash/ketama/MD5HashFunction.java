@@ -0,0 +1,16 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A HashFunction compatible with the MD5 mode of libketama: the hash of a key is the first four bytes of the MD5 digest
+ * of its UTF-8 bytes, read as a little-endian unsigned 32-bit value.
+ */
+public class MD5HashFunction implements HashFunction {
+
+    @Override
+    public long calculateHash(String input) {
+        Preconditions.checkNotNull(input);
+        return MD5Digester.point(MD5Digester.get().digest(input), 0);
+    }
+}
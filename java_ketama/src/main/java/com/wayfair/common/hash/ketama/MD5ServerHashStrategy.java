@@ -0,0 +1,48 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+
+import java.util.TreeMap;
+
+/**
+ * A ServerHashStrategy implementation compatible with the MD5 mode of libketama. The n-th digest of a server is the MD5
+ * digest of "name-n", and each digest provides four points on the continuum, so a server with 160 points needs 40
+ * digests.
+ * <p/>
+ * To share a ring with libketama clients, use this strategy with an MD5HashFunction, name each server with the address
+ * libketama is given (e.g. "10.0.1.1:11211") and give all servers the same weight.
+ */
+public class MD5ServerHashStrategy implements ServerHashStrategy {
+
+    @Override
+    public void addServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+        Preconditions.checkNotNull(server);
+        Preconditions.checkNotNull(continuum);
+        Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
+
+        MD5Digester digester = MD5Digester.get();
+        int points = server.getPoints(pointsPerServer);
+        for (int i = 0 ; i < points ; i += MD5Digester.POINTS_PER_DIGEST) {
+            byte[] digest = digester.digest(server.getName(), i / MD5Digester.POINTS_PER_DIGEST);
+            for (int j = 0 ; j < MD5Digester.POINTS_PER_DIGEST && i + j < points ; j++) {
+                continuum.put(MD5Digester.point(digest, j), server);
+            }
+        }
+    }
+
+    @Override
+    public void removeServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+        Preconditions.checkNotNull(server);
+        Preconditions.checkNotNull(continuum);
+        Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
+
+        MD5Digester digester = MD5Digester.get();
+        int points = server.getPoints(pointsPerServer);
+        for (int i = 0 ; i < points ; i += MD5Digester.POINTS_PER_DIGEST) {
+            byte[] digest = digester.digest(server.getName(), i / MD5Digester.POINTS_PER_DIGEST);
+            for (int j = 0 ; j < MD5Digester.POINTS_PER_DIGEST && i + j < points ; j++) {
+                continuum.remove(MD5Digester.point(digest, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * A HashRing using the lookup table of Google's Maglev load balancer. Every server walks its own permutation of the
+ * slots of a fixed, prime-sized table, and the servers take turns claiming the next free slot of their permutation
+ * until the table is full. A lookup is then a single hash of the key and one array index.
+ * <p/>
+ * Servers take turns in order of name, hostname and port, so every process builds the same table from the same set
+ * of servers. A server's turns are proportional to its weight. The offset and skip of each server's permutation are
+ * hashed once, when the server is added, and reused by every rebuild; getChangedSlots() reports how many slots the
+ * last change of the ring moved to a different server.
+ * <p/>
+ * This implementation is thread-safe. Changes are serialized and build a new table off to the side, which is then
+ * published through a single volatile reference that lookups read without acquiring any lock.
+ */
+public class MaglevRing implements HashRing {
+
+    public static final int DEFAULT_TABLE_SIZE = 65537;
+
+    private static final Comparator<KetamaServer> SERVER_ORDER = new Comparator<KetamaServer>() {
+        @Override
+        public int compare(KetamaServer left, KetamaServer right) {
+            return ComparisonChain.start()
+                    .compare(left.getName(), right.getName())
+                    .compare(left.getHostname(), right.getHostname())
+                    .compare(left.getPort(), right.getPort())
+                    .result();
+        }
+    };
+
+    private HashFunction keyHashFunction;
+    private int tableSize;
+    // each server maps to its permutation, which also holds the instance with its weight
+    private Map<KetamaServer, Permutation> permutations;
+    private volatile Table table;
+
+    /**
+     * Create an empty MaglevRing with a table of DEFAULT_TABLE_SIZE slots.
+     *
+     * @param keyHashFunction the HashFunction used to map keys and servers to slots
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     */
+    public MaglevRing(HashFunction keyHashFunction) {
+        this(keyHashFunction, Collections.<KetamaServer>emptySet(), DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Create a MaglevRing with a table of DEFAULT_TABLE_SIZE slots.
+     *
+     * @param keyHashFunction the HashFunction used to map keys and servers to slots
+     * @param servers         a Set of servers to on the ring initially
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.NullPointerException if servers is null
+     */
+    public MaglevRing(HashFunction keyHashFunction, Set<KetamaServer> servers) {
+        this(keyHashFunction, servers, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Create a MaglevRing with a table of the provided size. The table should be much larger than the number of
+     * servers, about 100 times, for the servers to get close to equal shares of it.
+     *
+     * @param keyHashFunction the HashFunction used to map keys and servers to slots
+     * @param servers         a Set of servers to on the ring initially
+     * @param tableSize       the number of slots in the table, which must be prime
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.NullPointerException if servers is null
+     * @throws java.lang.IllegalArgumentException if tableSize is not prime or is smaller than the number of servers
+     */
+    public MaglevRing(HashFunction keyHashFunction, Set<KetamaServer> servers, int tableSize) {
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+        Preconditions.checkArgument(tableSize > 1 && BigInteger.valueOf(tableSize).isProbablePrime(32),
+                "tableSize must be prime");
+
+        this.keyHashFunction = keyHashFunction;
+        this.tableSize = tableSize;
+        this.permutations = new HashMap<KetamaServer, Permutation>();
+        this.table = new Table(new KetamaServer[0], ImmutableSet.<KetamaServer>of(), null, 0);
+
+        add(servers);
+    }
+
+    @Override
+    public KetamaServer get(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        KetamaServer[] slots = table.slots;
+        if (slots.length == 0) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        return slots[slot(keyHashFunction.calculateHash(key), slots.length)];
+    }
+
+    @Override
+    public synchronized void add(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        add(Collections.singleton(server));
+    }
+
+    @Override
+    public synchronized void add(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        Map<KetamaServer, Permutation> next = new HashMap<KetamaServer, Permutation>(permutations);
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            if (!next.containsKey(server)) {
+                next.put(server, new Permutation(server));
+            }
+        }
+
+        rebuild(next);
+    }
+
+    @Override
+    public synchronized void remove(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        remove(Collections.singleton(server));
+    }
+
+    @Override
+    public synchronized void remove(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        Map<KetamaServer, Permutation> next = new HashMap<KetamaServer, Permutation>(permutations);
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            next.remove(server);
+        }
+
+        rebuild(next);
+    }
+
+    /**
+     * Synchronize the ring with the provided set of servers. Servers in both the ring and the set keep their
+     * permutation, but take the weight of the server in the set.
+     */
+    @Override
+    public synchronized void synchronizeRing(Set<KetamaServer> newServers) {
+        Preconditions.checkNotNull(newServers, "newServers cannot be null");
+
+        Map<KetamaServer, Permutation> next = new HashMap<KetamaServer, Permutation>();
+        for (KetamaServer server : newServers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            Permutation current = permutations.get(server);
+            next.put(server, current == null ? new Permutation(server) : current.withServer(server));
+        }
+
+        rebuild(next);
+    }
+
+    @Override
+    public boolean contains(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+        return table.servers.contains(server);
+    }
+
+    @Override
+    public Set<KetamaServer> getServers() {
+        return table.servers;
+    }
+
+    @Override
+    public int size() {
+        return table.servers.size();
+    }
+
+    @Override
+    public DateTime getModifiedDate() {
+        return table.modifiedDate;
+    }
+
+    /**
+     * Get the number of slots in the lookup table.
+     *
+     * @return the number of slots in the lookup table
+     */
+    public int getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Get the number of slots the last change of the ring moved to a different server. The ideal for adding or
+     * removing one of n servers is about tableSize / n.
+     *
+     * @return the number of slots whose server changed in the last rebuild of the table
+     */
+    public int getChangedSlots() {
+        return table.changedSlots;
+    }
+
+    /**
+     * Get the number of slots each server holds in the current table.
+     *
+     * @return a map of each server in the ring to its number of slots
+     */
+    public Map<KetamaServer, Integer> getSlotCounts() {
+        Map<KetamaServer, Integer> counts = new HashMap<KetamaServer, Integer>();
+        for (KetamaServer server : table.slots) {
+            Integer count = counts.get(server);
+            counts.put(server, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    private static int slot(long hashValue, int tableSize) {
+        int slot = (int) (hashValue % tableSize);
+        return slot < 0 ? slot + tableSize : slot;
+    }
+
+    /**
+     * Fill a new table from the provided permutations and publish it if the servers changed. Callers must hold the
+     * ring's lock.
+     */
+    private void rebuild(Map<KetamaServer, Permutation> next) {
+        if (next.equals(permutations)) {
+            return;
+        }
+        Preconditions.checkArgument(next.size() <= tableSize, "The ring cannot hold more servers than table slots");
+
+        Permutation[] ordered = next.values().toArray(new Permutation[next.size()]);
+        Arrays.sort(ordered);
+        KetamaServer[] slots = populate(ordered);
+
+        KetamaServer[] previous = table.slots;
+        int changed = 0;
+        for (int i = 0 ; i < slots.length ; i++) {
+            if (previous.length == 0 || !slots[i].equals(previous[i])) {
+                changed++;
+            }
+        }
+        if (slots.length == 0) {
+            changed = previous.length;
+        }
+
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (Permutation permutation : ordered) {
+            servers.add(permutation.server);
+        }
+
+        permutations = next;
+        table = new Table(slots, ImmutableSet.copyOf(servers), DateTime.now(DateTimeZone.UTC), changed);
+    }
+
+    /**
+     * Let the servers take turns claiming the next free slot of their permutation until the table is full. Every turn
+     * adds weight / maxWeight of a claim to a server's credit, and a server claims a slot for each whole unit of
+     * credit, so the heaviest server claims one slot per round.
+     */
+    private KetamaServer[] populate(Permutation[] ordered) {
+        if (ordered.length == 0) {
+            return new KetamaServer[0];
+        }
+
+        double maxWeight = 0;
+        for (Permutation permutation : ordered) {
+            maxWeight = Math.max(maxWeight, permutation.server.getWeight());
+        }
+
+        double[] shares = new double[ordered.length];
+        for (int i = 0 ; i < ordered.length ; i++) {
+            shares[i] = ordered[i].server.getWeight() / maxWeight;
+        }
+
+        KetamaServer[] slots = new KetamaServer[tableSize];
+        long[] next = new long[ordered.length];
+        double[] credits = new double[ordered.length];
+        int filled = 0;
+
+        while (true) {
+            for (int i = 0 ; i < ordered.length ; i++) {
+                credits[i] += shares[i];
+                if (credits[i] < 1) {
+                    continue;
+                }
+                credits[i] -= 1;
+
+                Permutation permutation = ordered[i];
+                int slot;
+                do {
+                    slot = (int) ((permutation.offset + next[i] * permutation.skip) % tableSize);
+                    next[i]++;
+                } while (slots[slot] != null);
+
+                slots[slot] = permutation.server;
+                if (++filled == tableSize) {
+                    return slots;
+                }
+            }
+        }
+    }
+
+    /**
+     * The permutation of table slots a server claims slots in: offset, offset + skip, offset + 2 * skip, ... modulo
+     * the table size. Since the table size is prime and skip is never 0, every slot appears in it.
+     */
+    private final class Permutation implements Comparable<Permutation> {
+
+        private final KetamaServer server;
+        private final long offset;
+        private final long skip;
+
+        private Permutation(KetamaServer server) {
+            this(server, slot(keyHashFunction.calculateHash(server.getName()), tableSize),
+                    slot(keyHashFunction.calculateHash(server.getName() + "-skip"), tableSize - 1) + 1);
+        }
+
+        private Permutation(KetamaServer server, long offset, long skip) {
+            this.server = server;
+            this.offset = offset;
+            this.skip = skip;
+        }
+
+        private Permutation withServer(KetamaServer server) {
+            return server.getWeight() == this.server.getWeight() ? this : new Permutation(server, offset, skip);
+        }
+
+        @Override
+        public int compareTo(Permutation other) {
+            return SERVER_ORDER.compare(server, other.server);
+        }
+    }
+
+    /**
+     * An immutable view of the lookup table at one point in time.
+     */
+    private static final class Table {
+
+        private final KetamaServer[] slots;
+        private final Set<KetamaServer> servers;
+        private final DateTime modifiedDate;
+        private final int changedSlots;
+
+        private Table(KetamaServer[] slots, Set<KetamaServer> servers, DateTime modifiedDate, int changedSlots) {
+            this.slots = slots;
+            this.servers = servers;
+            this.modifiedDate = modifiedDate;
+            this.changedSlots = changedSlots;
+        }
+    }
+}
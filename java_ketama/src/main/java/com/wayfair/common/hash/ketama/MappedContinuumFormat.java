@@ -0,0 +1,98 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Throwables;
+
+import java.io.*;
+
+/**
+ * The layout of a continuum shared through a memory-mapped file by MappedContinuumWriter and MappedContinuumReader.
+ * <p/>
+ * The file starts with a fixed header, followed by the sorted points, the index of the server owning each point and
+ * the server table. All values are big-endian. The sequence in the header is odd while the writer is changing the file
+ * and is incremented again once it is done, so readers can detect and retry reads that overlapped a write.
+ */
+final class MappedContinuumFormat {
+
+    static final int MAGIC = 0x4b544d41; // "KTMA"
+    static final int VERSION = 1;
+
+    // header fields
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int LENGTH_OFFSET = 16;
+    static final int POINT_COUNT_OFFSET = 20;
+    static final int SERVER_TABLE_LENGTH_OFFSET = 24;
+    static final int HEADER_LENGTH = 32;
+
+    // volatile accesses to this field order the plain reads and writes of the mapped buffer, as Java 6 has no fences
+    private static volatile int fence;
+
+    private MappedContinuumFormat() {
+    }
+
+    /**
+     * Order the mapped buffer accesses before this call with the ones after it.
+     */
+    static void fence() {
+        fence = fence + 1;
+    }
+
+    static int pointsOffset() {
+        return HEADER_LENGTH;
+    }
+
+    static int serverIndexesOffset(int pointCount) {
+        return HEADER_LENGTH + pointCount * 8;
+    }
+
+    static int serverTableOffset(int pointCount) {
+        return serverIndexesOffset(pointCount) + pointCount * 4;
+    }
+
+    /**
+     * Encode the name of the key hash function and the servers, in index order.
+     */
+    static byte[] encodeServerTable(HashFunction keyHashFunction, KetamaServer[] servers) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(keyHashFunction.getClass().getName());
+            out.writeInt(servers.length);
+            for (KetamaServer server : servers) {
+                out.writeUTF(server.getName());
+                out.writeUTF(server.getHostname());
+                out.writeInt(server.getPort());
+                out.writeDouble(server.getWeight());
+            }
+            out.close();
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw Throwables.propagate(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a server table, checking it was written for the given key hash function.
+     *
+     * @throws java.lang.IllegalStateException if the table was written for another key hash function
+     */
+    static KetamaServer[] decodeServerTable(byte[] table, HashFunction keyHashFunction) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(table));
+
+        String hashFunctionName = in.readUTF();
+        if (!hashFunctionName.equals(keyHashFunction.getClass().getName())) {
+            throw new IllegalStateException("The continuum was written for key hash function " + hashFunctionName
+                    + ", not " + keyHashFunction.getClass().getName());
+        }
+
+        KetamaServer[] servers = new KetamaServer[in.readInt()];
+        for (int i = 0 ; i < servers.length ; i++) {
+            servers[i] = new KetamaServer(in.readUTF(), in.readUTF(), in.readInt(), in.readDouble());
+        }
+
+        return servers;
+    }
+}
@@ -0,0 +1,275 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static com.wayfair.common.hash.ketama.MappedContinuumFormat.*;
+
+/**
+ * Routes keys against a continuum published to a memory-mapped file by a MappedContinuumWriter, possibly in another
+ * process. Lookups binary search the mapping directly, so the continuum is shared by every process on the host rather
+ * than copied into each heap.
+ * <p/>
+ * Each lookup checks the sequence number of the file before and after reading it, and retries if a publish happened
+ * in between, so a lookup always sees a complete continuum. A newly published continuum is used by the next lookup.
+ * A lookup that keeps finding a publish in progress for over a second gives up, since the writer may have died.
+ * <p/>
+ * This implementation is thread-safe.
+ */
+public class MappedContinuumReader implements Closeable {
+
+    private static final long RETRY_LIMIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final File file;
+    private final HashFunction keyHashFunction;
+    private volatile MappedByteBuffer buffer;
+    private volatile ServerTable serverTable;
+
+    /**
+     * Map a file written by a MappedContinuumWriter.
+     *
+     * @param file            the file to read continuums from
+     * @param keyHashFunction the HashFunction to be used when mapping keys to points; must be the same as the key hash
+     *                        function of the published rings
+     *
+     * @throws java.lang.NullPointerException if file is null
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.IllegalStateException if the file was not written by a MappedContinuumWriter
+     * @throws java.io.IOException if the file cannot be opened or mapped
+     */
+    public MappedContinuumReader(File file, HashFunction keyHashFunction) throws IOException {
+        Preconditions.checkNotNull(file, "file cannot be null");
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+
+        this.file = file;
+        this.keyHashFunction = keyHashFunction;
+        map();
+    }
+
+    /**
+     * Get a server given a key, with the same result as KetamaRing.get(String) on the published ring.
+     *
+     * @param key the key to be hashed to select a server point on the continuum
+     *
+     * @return the server associated with a point on the continuum greater than or equal to the hash of the key; the
+     * server associated with the the first point on the continuum if the hash is greater than all points
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the published continuum is empty
+     * @throws java.lang.IllegalStateException if nothing was published yet, the reader is closed, the continuum was
+     * published for another key hash function, or a publish has been in progress for over a second
+     */
+    public KetamaServer get(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        return get(keyHashFunction.calculateHash(key));
+    }
+
+    /**
+     * Get the sequence number of the continuum currently published to the file. It changes with every publish.
+     *
+     * @return the current sequence number
+     *
+     * @throws java.lang.IllegalStateException if the reader is closed or a publish has been in progress for over a
+     * second
+     */
+    public long getSequence() {
+        long deadline = 0;
+        while (true) {
+            MappedByteBuffer current = mapping();
+            long sequence = current.getLong(SEQUENCE_OFFSET);
+            if ((sequence & 1) == 0) {
+                return sequence;
+            }
+            deadline = retry(deadline);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Release the mapping. The memory is returned to the system once the mapping is garbage collected.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+        serverTable = null;
+    }
+
+    private KetamaServer get(long hashValue) {
+        long deadline = 0;
+        while (true) {
+            MappedByteBuffer current = mapping();
+            long sequence = current.getLong(SEQUENCE_OFFSET);
+            if ((sequence & 1) != 0) {
+                // a publish is in progress
+                deadline = retry(deadline);
+                Thread.yield();
+                continue;
+            }
+            fence();
+
+            KetamaServer server;
+            try {
+                int length = current.getInt(LENGTH_OFFSET);
+                if (length > current.capacity()) {
+                    // the writer grew the file
+                    remap();
+                    continue;
+                }
+
+                server = get(current, sequence, hashValue);
+            } catch (RuntimeException e) {
+                // reads that overlap a publish can see inconsistent offsets; only fail if the continuum was stable
+                fence();
+                if (current.getLong(SEQUENCE_OFFSET) == sequence) {
+                    throw e;
+                }
+                deadline = retry(deadline);
+                continue;
+            }
+
+            fence();
+            if (current.getLong(SEQUENCE_OFFSET) == sequence) {
+                return server;
+            }
+            deadline = retry(deadline);
+        }
+    }
+
+    /**
+     * Start the retry limit on the first retry of a read, and fail once it has passed.
+     *
+     * @return the deadline of the retries
+     */
+    private long retry(long deadline) {
+        long now = System.nanoTime();
+        if (deadline == 0) {
+            return now + RETRY_LIMIT_NANOS;
+        }
+        if (now - deadline > 0) {
+            throw new IllegalStateException("A publish to " + file + " has been in progress for over a second");
+        }
+        return deadline;
+    }
+
+    private KetamaServer get(MappedByteBuffer current, long sequence, long hashValue) {
+        int pointCount = current.getInt(POINT_COUNT_OFFSET);
+        if (sequence == 0) {
+            throw new IllegalStateException("No continuum has been published to " + file);
+        }
+
+        if (pointCount == 0) {
+            throw new NoSuchElementException("The continuum is empty!");
+        }
+
+        KetamaServer[] servers = servers(current, sequence, pointCount);
+
+        int pointsOffset = pointsOffset();
+        int low = 0;
+        int high = pointCount - 1;
+
+        // all points are below hashValue, so wrap to the beginning
+        if (current.getLong(pointsOffset + high * 8) < hashValue) {
+            high = 0;
+        }
+
+        // find the lowest point greater than or equal to hashValue
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (current.getLong(pointsOffset + mid * 8) < hashValue) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return servers[current.getInt(serverIndexesOffset(pointCount) + high * 4)];
+    }
+
+    /**
+     * Get the decoded server table for a sequence, decoding it again if the sequence changed.
+     */
+    private KetamaServer[] servers(MappedByteBuffer current, long sequence, int pointCount) {
+        ServerTable table = serverTable;
+        if (table != null && table.sequence == sequence) {
+            return table.servers;
+        }
+
+        byte[] bytes = new byte[current.getInt(SERVER_TABLE_LENGTH_OFFSET)];
+        int offset = serverTableOffset(pointCount);
+        for (int i = 0 ; i < bytes.length ; i++) {
+            bytes[i] = current.get(offset + i);
+        }
+
+        KetamaServer[] servers;
+        try {
+            servers = decodeServerTable(bytes, keyHashFunction);
+        } catch (IOException e) {
+            throw new IllegalStateException("The server table is corrupt", e);
+        }
+
+        // only cache a table read from a stable continuum
+        fence();
+        if (current.getLong(SEQUENCE_OFFSET) == sequence) {
+            serverTable = new ServerTable(sequence, servers);
+        }
+
+        return servers;
+    }
+
+    private MappedByteBuffer mapping() {
+        MappedByteBuffer current = buffer;
+        if (current == null) {
+            throw new IllegalStateException("The reader is closed");
+        }
+
+        return current;
+    }
+
+    private synchronized void remap() {
+        try {
+            map();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map " + file, e);
+        }
+    }
+
+    private synchronized void map() throws IOException {
+        RandomAccessFile mappedFile = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer mapped = mappedFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mappedFile.length());
+            if (mapped.capacity() < HEADER_LENGTH || mapped.getInt(MAGIC_OFFSET) != MAGIC) {
+                throw new IllegalStateException(file + " is not a mapped continuum");
+            }
+            if (mapped.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IllegalStateException(file + " has unsupported version " + mapped.getInt(VERSION_OFFSET));
+            }
+
+            buffer = mapped;
+        } finally {
+            // the mapping stays valid after the file is closed
+            mappedFile.close();
+        }
+    }
+
+    /**
+     * The servers of the continuum published with a given sequence.
+     */
+    private static final class ServerTable {
+
+        private final long sequence;
+        private final KetamaServer[] servers;
+
+        private ServerTable(long sequence, KetamaServer[] servers) {
+            this.sequence = sequence;
+            this.servers = servers;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static com.wayfair.common.hash.ketama.MappedContinuumFormat.*;
+
+/**
+ * Publishes the continuum of a KetamaRing to a memory-mapped file, so that other processes on the host can route keys
+ * with a MappedContinuumReader instead of building their own ring. Put the file on a memory-backed file system such as
+ * /dev/shm so it never touches the disk.
+ * <p/>
+ * There must be a single writer per file. Each publish replaces the continuum in place, bracketed by a sequence number,
+ * so readers either see the previous or the new continuum and never a mix of the two. The file grows as needed but
+ * never shrinks.
+ * <p/>
+ * This is not a thread-safe implementation.
+ */
+public class MappedContinuumWriter implements Closeable {
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Open a file to publish continuums to, creating it if needed. If the file already holds a continuum, its sequence
+     * is carried on so that readers still mapping it see the next publish as a change. If the previous writer died
+     * while publishing, the sequence is left odd over a half-written continuum; it is dropped, so readers see an empty
+     * continuum until the next publish, and the sequence is made even again.
+     *
+     * @param file the file to publish continuums to
+     *
+     * @throws java.lang.NullPointerException if file is null
+     * @throws java.io.IOException if the file cannot be opened or mapped
+     */
+    public MappedContinuumWriter(File file) throws IOException {
+        Preconditions.checkNotNull(file, "file cannot be null");
+
+        this.file = new RandomAccessFile(file, "rw");
+        boolean initialized = this.file.length() >= HEADER_LENGTH;
+        map(Math.max(HEADER_LENGTH, this.file.length()));
+
+        if (!initialized || buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != VERSION) {
+            buffer.putLong(SEQUENCE_OFFSET, 0);
+            buffer.putInt(LENGTH_OFFSET, 0);
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            fence();
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+        } else if ((buffer.getLong(SEQUENCE_OFFSET) & 1) != 0) {
+            buffer.putInt(POINT_COUNT_OFFSET, 0);
+            buffer.putInt(SERVER_TABLE_LENGTH_OFFSET, 0);
+            buffer.putInt(LENGTH_OFFSET, HEADER_LENGTH);
+            fence();
+            buffer.putLong(SEQUENCE_OFFSET, buffer.getLong(SEQUENCE_OFFSET) + 1);
+            fence();
+        }
+    }
+
+    /**
+     * Publish the current continuum of a ring.
+     *
+     * @param ring the ring to publish
+     *
+     * @return the sequence number of the published continuum
+     *
+     * @throws java.lang.NullPointerException if ring is null
+     * @throws java.lang.IllegalStateException if the writer is closed
+     * @throws java.io.IOException if the file cannot be grown
+     */
+    public long publish(KetamaRing ring) throws IOException {
+        Preconditions.checkNotNull(ring, "ring cannot be null");
+        Preconditions.checkState(file != null, "The writer is closed");
+
+        SortedArrayContinuum continuum = ring.getContinuum();
+        int pointCount = continuum.size();
+
+        // number the servers in order of first appearance on the continuum
+        Map<KetamaServer, Integer> serverIndexes = new IdentityHashMap<KetamaServer, Integer>();
+        int[] pointServers = new int[pointCount];
+        for (int i = 0 ; i < pointCount ; i++) {
+            KetamaServer server = continuum.getServer(i);
+            Integer index = serverIndexes.get(server);
+            if (index == null) {
+                index = serverIndexes.size();
+                serverIndexes.put(server, index);
+            }
+            pointServers[i] = index;
+        }
+
+        KetamaServer[] servers = new KetamaServer[serverIndexes.size()];
+        for (Map.Entry<KetamaServer, Integer> entry : serverIndexes.entrySet()) {
+            servers[entry.getValue()] = entry.getKey();
+        }
+
+        byte[] serverTable = encodeServerTable(ring.getKeyHashFunction(), servers);
+        int length = serverTableOffset(pointCount) + serverTable.length;
+        if (length > buffer.capacity()) {
+            // grow geometrically so that a slowly growing ring does not remap on every publish
+            map(Math.max(length, buffer.capacity() + buffer.capacity() / 2));
+        }
+
+        // odd while the continuum is rewritten, whatever the sequence was left at
+        long sequence = buffer.getLong(SEQUENCE_OFFSET) | 1;
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        fence();
+
+        int pointsOffset = pointsOffset();
+        int serverIndexesOffset = serverIndexesOffset(pointCount);
+        for (int i = 0 ; i < pointCount ; i++) {
+            buffer.putLong(pointsOffset + i * 8, continuum.getPoint(i));
+            buffer.putInt(serverIndexesOffset + i * 4, pointServers[i]);
+        }
+
+        int serverTableOffset = serverTableOffset(pointCount);
+        for (int i = 0 ; i < serverTable.length ; i++) {
+            buffer.put(serverTableOffset + i, serverTable[i]);
+        }
+
+        buffer.putInt(POINT_COUNT_OFFSET, pointCount);
+        buffer.putInt(SERVER_TABLE_LENGTH_OFFSET, serverTable.length);
+        buffer.putInt(LENGTH_OFFSET, length);
+
+        fence();
+        buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+        fence();
+
+        return sequence + 1;
+    }
+
+    /**
+     * Close the file. The published continuum stays in the file for readers.
+     *
+     * @throws java.io.IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+            buffer = null;
+        }
+    }
+
+    private void map(long length) throws IOException {
+        Preconditions.checkState(length <= Integer.MAX_VALUE, "The continuum is too large to be mapped");
+
+        file.setLength(Math.max(length, file.length()));
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+    }
+}
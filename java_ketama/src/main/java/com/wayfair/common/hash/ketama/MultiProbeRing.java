@@ -0,0 +1,295 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.*;
+
+/**
+ * A HashRing using multi-probe consistent hashing. Each server is placed at only a few points on the continuum, one
+ * by default, and each key is hashed several times; the key maps to the server whose point follows one of the probes
+ * most closely. With 21 probes the balance is close to that of a KetamaRing with 160 points per server, for a
+ * continuum that is 160 times smaller. DistributionReport measures the balance of a given configuration.
+ * <p/>
+ * The probes can only even out the gaps between points if the points themselves are spread uniformly. With one point
+ * per server, prefer MD5ServerHashStrategy: FNV-1a places servers with similar names close together.
+ * <p/>
+ * The first probe is the hash of the key itself, so a MultiProbeRing with one probe and 160 points per server routes
+ * exactly like a KetamaRing. The other probes are derived from it with a mixing function and are confined to 32 bits,
+ * the range of the points placed by FNV1AServerHashStrategy and MD5ServerHashStrategy.
+ * <p/>
+ * This implementation is thread-safe. Changes to the ring are serialized and build a new immutable continuum off to
+ * the side, which is then published through a single volatile reference that lookups read without acquiring any lock.
+ */
+public class MultiProbeRing implements HashRing {
+
+    public static final int DEFAULT_POINTS_PER_SERVER = 1;
+    public static final int DEFAULT_PROBES = 21;
+
+    private static final long HASH_SPACE_MASK = 0xffffffffL;
+
+    private ServerHashStrategy serverHashStrategy;
+    private HashFunction keyHashFunction;
+    private int pointsPerServer;
+    private int probes;
+    private TreeMap<Long, KetamaServer> continuum;
+    // each server maps to itself, so the instance on the continuum, and its weight, can be found from an equal server
+    private Map<KetamaServer, KetamaServer> servers;
+    private DateTime modifiedDate;
+    private volatile RingSnapshot snapshot;
+
+    /**
+     * Create an empty MultiProbeRing with DEFAULT_POINTS_PER_SERVER points per server and DEFAULT_PROBES probes.
+     *
+     * @param serverHashStrategy the hashing strategy to use when placing the servers on the continuum
+     * @param keyHashFunction    the HashFunction to be used when mapping keys to points on the ring
+     *
+     * @throws java.lang.NullPointerException if serverHashStrategy is null
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     */
+    public MultiProbeRing(ServerHashStrategy serverHashStrategy, HashFunction keyHashFunction) {
+        this(serverHashStrategy, keyHashFunction, DEFAULT_POINTS_PER_SERVER, DEFAULT_PROBES);
+    }
+
+    /**
+     * Create an empty MultiProbeRing.
+     *
+     * @param serverHashStrategy the hashing strategy to use when placing the servers on the continuum
+     * @param keyHashFunction    the HashFunction to be used when mapping keys to points on the ring
+     * @param pointsPerServer    the number of points per unit of weight each server is placed at
+     * @param probes             the number of times each key is hashed
+     *
+     * @throws java.lang.NullPointerException if serverHashStrategy is null
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.IllegalArgumentException if pointsPerServer or probes is less than 1
+     */
+    public MultiProbeRing(ServerHashStrategy serverHashStrategy, HashFunction keyHashFunction, int pointsPerServer,
+                          int probes) {
+        Preconditions.checkNotNull(serverHashStrategy, "serverHashStrategy cannot be null");
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+        Preconditions.checkArgument(pointsPerServer > 0, "pointsPerServer must be greater than 0");
+        Preconditions.checkArgument(probes > 0, "probes must be greater than 0");
+
+        this.serverHashStrategy = serverHashStrategy;
+        this.keyHashFunction = keyHashFunction;
+        this.pointsPerServer = pointsPerServer;
+        this.probes = probes;
+        this.servers = new HashMap<KetamaServer, KetamaServer>();
+        continuum = new TreeMap<Long, KetamaServer>();
+        publish();
+    }
+
+    @Override
+    public KetamaServer get(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        RingSnapshot current = snapshot;
+        if (current.servers.isEmpty()) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        SortedArrayContinuum points = current.continuum;
+        long hashValue = keyHashFunction.calculateHash(key);
+
+        int bestIndex = points.indexOf(hashValue);
+        long bestDistance = (points.getPoint(bestIndex) - hashValue) & HASH_SPACE_MASK;
+        for (int i = 1 ; i < probes ; i++) {
+            long probe = SplitMix.mix64(hashValue + i * SplitMix.GOLDEN_GAMMA) & HASH_SPACE_MASK;
+            int index = points.indexOf(probe);
+            // the distance to the next point, wrapping around the 32-bit continuum
+            long distance = (points.getPoint(index) - probe) & HASH_SPACE_MASK;
+            if (distance < bestDistance) {
+                bestIndex = index;
+                bestDistance = distance;
+            }
+        }
+
+        return points.getServer(bestIndex);
+    }
+
+    @Override
+    public synchronized void add(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        if (addServer(server)) {
+            publish();
+        }
+    }
+
+    @Override
+    public synchronized void add(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        boolean changed = false;
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            changed |= addServer(server);
+        }
+
+        if (changed) {
+            publish();
+        }
+    }
+
+    @Override
+    public synchronized void remove(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        if (removeServer(server)) {
+            publish();
+        }
+    }
+
+    @Override
+    public synchronized void remove(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        boolean changed = false;
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            changed |= removeServer(server);
+        }
+
+        if (changed) {
+            publish();
+        }
+    }
+
+    /**
+     * Synchronize the ring with the provided set of servers. Servers in both the ring and the set whose weight changed
+     * have their points moved to match the new weight.
+     */
+    @Override
+    public synchronized void synchronizeRing(Set<KetamaServer> newServers) {
+        Preconditions.checkNotNull(newServers, "newServers cannot be null");
+
+        Set<KetamaServer> currentServers = new HashSet<KetamaServer>(servers.keySet());
+
+        boolean changed = false;
+        for (KetamaServer server : Sets.difference(newServers, currentServers)) {
+            changed |= addServer(server);
+        }
+        for (KetamaServer server : Sets.intersection(newServers, currentServers)) {
+            KetamaServer current = servers.get(server);
+            if (current.getWeight() != server.getWeight()) {
+                changed |= removeServer(current);
+                changed |= addServer(server);
+            }
+        }
+        for (KetamaServer server : Sets.difference(currentServers, newServers)) {
+            changed |= removeServer(server);
+        }
+
+        if (changed) {
+            publish();
+        }
+    }
+
+    @Override
+    public boolean contains(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+        return snapshot.servers.contains(server);
+    }
+
+    @Override
+    public Set<KetamaServer> getServers() {
+        return snapshot.servers;
+    }
+
+    /**
+     * Get the continuum of the ring as it is now. The continuum is immutable, so later changes to the ring are not
+     * reflected in it.
+     *
+     * @return the current continuum of the ring
+     */
+    public SortedArrayContinuum getContinuum() {
+        return snapshot.continuum;
+    }
+
+    /**
+     * Get the number of points per unit of weight each server is placed at.
+     *
+     * @return the number of points per server
+     */
+    public int getPointsPerServer() {
+        return pointsPerServer;
+    }
+
+    /**
+     * Get the number of times each key is hashed.
+     *
+     * @return the number of probes per key
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    @Override
+    public int size() {
+        return getServers().size();
+    }
+
+    @Override
+    public DateTime getModifiedDate() {
+        return snapshot.modifiedDate;
+    }
+
+    /**
+     * Place a server on the continuum without publishing a new snapshot. Callers must hold the ring's lock.
+     *
+     * @return true if the server was added, false if it was already in the ring
+     */
+    private boolean addServer(KetamaServer server) {
+        if (servers.containsKey(server)) {
+            return false;
+        }
+
+        serverHashStrategy.addServer(server, continuum, pointsPerServer);
+        servers.put(server, server);
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+        return true;
+    }
+
+    /**
+     * Take a server off the continuum without publishing a new snapshot. Callers must hold the ring's lock.
+     *
+     * @return true if the server was removed, false if it was not in the ring
+     */
+    private boolean removeServer(KetamaServer server) {
+        KetamaServer current = servers.remove(server);
+        if (current == null) {
+            return false;
+        }
+
+        serverHashStrategy.removeServer(current, continuum, pointsPerServer);
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+        return true;
+    }
+
+    /**
+     * Build a snapshot of the current continuum and servers and make it visible to readers. Callers must hold the
+     * ring's lock.
+     */
+    private void publish() {
+        snapshot = new RingSnapshot(SortedArrayContinuum.from(continuum), ImmutableSet.copyOf(servers.values()), modifiedDate);
+    }
+
+    /**
+     * An immutable view of the ring at one point in time.
+     */
+    private static final class RingSnapshot {
+
+        private final SortedArrayContinuum continuum;
+        private final Set<KetamaServer> servers;
+        private final DateTime modifiedDate;
+
+        private RingSnapshot(SortedArrayContinuum continuum, Set<KetamaServer> servers, DateTime modifiedDate) {
+            this.continuum = continuum;
+            this.servers = servers;
+            this.modifiedDate = modifiedDate;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.wayfair.common.hash.ketama;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+/**
+ * A range of hash values whose server changed between two continuums. Both ends of the range are inclusive. The old
+ * or new server is null when the corresponding continuum was empty.
+ */
+public final class OwnershipChange {
+
+    private final long start;
+    private final long end;
+    private final KetamaServer oldServer;
+    private final KetamaServer newServer;
+
+    public OwnershipChange(long start, long end, KetamaServer oldServer, KetamaServer newServer) {
+        this.start = start;
+        this.end = end;
+        this.oldServer = oldServer;
+        this.newServer = newServer;
+    }
+
+    /**
+     * @return the lowest hash value in the range
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the highest hash value in the range
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the server the range mapped to before the change, or null if there was none
+     */
+    public KetamaServer getOldServer() {
+        return oldServer;
+    }
+
+    /**
+     * @return the server the range maps to after the change, or null if there is none
+     */
+    public KetamaServer getNewServer() {
+        return newServer;
+    }
+
+    /**
+     * Check whether a hash value is in the range that changed.
+     *
+     * @param hashValue the hash value of a key
+     *
+     * @return true if the hash value is between start and end, inclusive
+     */
+    public boolean contains(long hashValue) {
+        return start <= hashValue && hashValue <= end;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (object instanceof OwnershipChange) {
+            OwnershipChange change = (OwnershipChange) object;
+
+            return new EqualsBuilder()
+                    .append(change.getStart(), getStart())
+                    .append(change.getEnd(), getEnd())
+                    .append(change.getOldServer(), getOldServer())
+                    .append(change.getNewServer(), getNewServer())
+                    .build();
+        }
+
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(getStart())
+                .append(getEnd())
+                .append(getOldServer())
+                .append(getNewServer())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getStart() + ", " + getEnd() + "] " + getOldServer() + " -> " + getNewServer();
+    }
+}
@@ -0,0 +1,83 @@
+package com.wayfair.common.hash.ketama;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sequence of changes to a continuum, each putting or removing the points of one server. The changes are kept as
+ * sorted runs and only merged when they are applied, with a later change to a point overriding an earlier one, so
+ * applying them gives the same continuum as making them one by one.
+ */
+final class PointChanges {
+
+    private final List<PointRun> runs = new ArrayList<PointRun>();
+    // the server each change puts, by the order of the change, or null for a removal
+    private final List<KetamaServer> owners = new ArrayList<KetamaServer>();
+    // the instance to own the points of a server once the changes are applied, by an equal server
+    private final Map<KetamaServer, KetamaServer> instances = new HashMap<KetamaServer, KetamaServer>();
+
+    /**
+     * Make a server the owner of points, taking over any point another server has.
+     *
+     * @param server the server to own the points
+     * @param points the distinct points, sorted in ascending order
+     */
+    void put(KetamaServer server, long[] points) {
+        runs.add(PointRun.of(points, owners.size()));
+        owners.add(server);
+    }
+
+    /**
+     * Remove points, whichever server owns them.
+     *
+     * @param points the distinct points, sorted in ascending order
+     */
+    void remove(long[] points) {
+        runs.add(PointRun.of(points, owners.size()));
+        owners.add(null);
+    }
+
+    /**
+     * Hand the points of a server to another, equal instance, e.g. one with new labels, without moving any point.
+     *
+     * @param server the instance to own the points of every server equal to it
+     */
+    void replace(KetamaServer server) {
+        instances.put(server, server);
+    }
+
+    boolean isEmpty() {
+        return runs.isEmpty() && instances.isEmpty();
+    }
+
+    /**
+     * @return the number of changes, which bounds the orders of the merged run
+     */
+    int count() {
+        return owners.size();
+    }
+
+    /**
+     * @return every changed point in ascending order, each tagged with the order of the last change to it
+     */
+    PointRun merge() {
+        return PointRun.mergeAll(runs);
+    }
+
+    /**
+     * @return the server a change puts, or null if it is a removal
+     */
+    KetamaServer owner(int order) {
+        return owners.get(order);
+    }
+
+    /**
+     * @return the instance to own the points of a server, which is the server itself unless it was replaced
+     */
+    KetamaServer instanceOf(KetamaServer server) {
+        KetamaServer instance = instances.get(server);
+        return instance != null ? instance : server;
+    }
+}
@@ -0,0 +1,90 @@
+package com.wayfair.common.hash.ketama;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Points sorted in ascending order, each tagged with an order: the position of the step that placed it in a sequence
+ * of steps, such as adding servers one by one. Merging runs resolves a point in both by keeping the later order, which
+ * is what putting the points into a TreeMap step by step would leave.
+ */
+final class PointRun {
+
+    final long[] points;
+    final int[] orders;
+    int size;
+
+    PointRun(int capacity) {
+        points = new long[capacity];
+        orders = new int[capacity];
+    }
+
+    /**
+     * Create a run of distinct sorted points, all with the same order.
+     */
+    static PointRun of(long[] points, int order) {
+        PointRun run = new PointRun(points.length);
+        for (long point : points) {
+            run.add(point, order);
+        }
+        return run;
+    }
+
+    void add(long point, int order) {
+        points[size] = point;
+        orders[size] = order;
+        size++;
+    }
+
+    /**
+     * Merge two runs. A point in both runs keeps the later order.
+     */
+    static PointRun merge(PointRun first, PointRun second) {
+        PointRun merged = new PointRun(first.size + second.size);
+        int i = 0;
+        int j = 0;
+        while (i < first.size && j < second.size) {
+            long a = first.points[i];
+            long b = second.points[j];
+            if (a < b) {
+                merged.add(a, first.orders[i++]);
+            } else if (b < a) {
+                merged.add(b, second.orders[j++]);
+            } else {
+                merged.add(a, Math.max(first.orders[i++], second.orders[j++]));
+            }
+        }
+        while (i < first.size) {
+            merged.add(first.points[i], first.orders[i++]);
+        }
+        while (j < second.size) {
+            merged.add(second.points[j], second.orders[j++]);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Merge any number of runs pairwise, so every point is copied once per level rather than once per run.
+     *
+     * @return the merged run, which is empty if there are no runs
+     */
+    static PointRun mergeAll(List<PointRun> runs) {
+        if (runs.isEmpty()) {
+            return new PointRun(0);
+        }
+
+        while (runs.size() > 1) {
+            List<PointRun> merged = new ArrayList<PointRun>(runs.size() / 2 + 1);
+            for (int i = 0 ; i + 1 < runs.size() ; i += 2) {
+                merged.add(merge(runs.get(i), runs.get(i + 1)));
+            }
+            if (runs.size() % 2 != 0) {
+                merged.add(runs.get(runs.size() - 1));
+            }
+            runs = merged;
+        }
+
+        return runs.get(0);
+    }
+}
@@ -0,0 +1,306 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.*;
+
+/**
+ * A HashRing using rendezvous, or highest random weight, hashing. Every server is scored for every key by mixing the
+ * hash of the key with a seed hashed from the server's name, and the key maps to the server with the highest score.
+ * There are no points to place, so small pools are balanced as well as the hash allows, and removing a server only
+ * moves the keys it held.
+ * <p/>
+ * Weighted servers are scored with the logarithmic method, -weight / ln(u) for a uniform u derived from the mixed
+ * hash, so each server wins a share of keys proportional to its weight. When all servers have the same weight the
+ * mixed hashes are compared directly. Lookups take time proportional to the number of servers, so this ring is meant
+ * for pools of a few dozen servers at most.
+ * <p/>
+ * This implementation is thread-safe. Changes are serialized and publish new immutable arrays through a single
+ * volatile reference, which lookups read without acquiring any lock. Scoring does not allocate.
+ */
+public class RendezvousRing implements HashRing {
+
+    private static final Comparator<KetamaServer> SERVER_ORDER = new Comparator<KetamaServer>() {
+        @Override
+        public int compare(KetamaServer left, KetamaServer right) {
+            return ComparisonChain.start()
+                    .compare(left.getName(), right.getName())
+                    .compare(left.getHostname(), right.getHostname())
+                    .compare(left.getPort(), right.getPort())
+                    .result();
+        }
+    };
+
+    private static final double UNIT = 1.0 / (1L << 53);
+
+    private HashFunction keyHashFunction;
+    // each server maps to itself, so the instance with its weight can be found from an equal server
+    private Map<KetamaServer, KetamaServer> servers;
+    private volatile Pool pool;
+
+    /**
+     * Create an empty RendezvousRing.
+     *
+     * @param keyHashFunction the HashFunction used to hash keys and server names
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     */
+    public RendezvousRing(HashFunction keyHashFunction) {
+        this(keyHashFunction, Collections.<KetamaServer>emptySet());
+    }
+
+    /**
+     * Create a RendezvousRing with the provided servers.
+     *
+     * @param keyHashFunction the HashFunction used to hash keys and server names
+     * @param servers         a Set of servers to on the ring initially
+     *
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     * @throws java.lang.NullPointerException if servers is null
+     */
+    public RendezvousRing(HashFunction keyHashFunction, Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        this.keyHashFunction = keyHashFunction;
+        this.servers = new HashMap<KetamaServer, KetamaServer>();
+        this.pool = new Pool(new KetamaServer[0], new long[0], new double[0], false, null);
+
+        add(servers);
+    }
+
+    @Override
+    public KetamaServer get(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        Pool current = pool;
+        if (current.servers.length == 0) {
+            throw new NoSuchElementException("The ring is empty!");
+        }
+
+        long keyHash = keyHashFunction.calculateHash(key);
+        return current.servers[current.next(keyHash, Double.POSITIVE_INFINITY, -1)];
+    }
+
+    /**
+     * Fill an array with the servers scoring highest for a key, best first. The first server is the one get(String)
+     * returns, and the others are the servers the key would move to if the ones before them were removed, which makes
+     * them natural replicas. No objects are allocated.
+     *
+     * @param key the key to look up
+     * @param top the array to fill; its length is the number of servers wanted
+     *
+     * @return the number of servers written to top, which is the smaller of its length and the size of the ring
+     *
+     * @throws java.lang.NullPointerException if key or top is null
+     */
+    public int getTop(String key, KetamaServer[] top) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        Preconditions.checkNotNull(top, "top cannot be null");
+
+        Pool current = pool;
+        int count = Math.min(top.length, current.servers.length);
+        long keyHash = keyHashFunction.calculateHash(key);
+
+        // each pass finds the best server ranked after the previous one, so nothing needs to be sorted or allocated
+        double score = Double.POSITIVE_INFINITY;
+        int index = -1;
+        for (int i = 0 ; i < count ; i++) {
+            index = current.next(keyHash, score, index);
+            score = current.score(keyHash, index);
+            top[i] = current.servers[index];
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the servers scoring highest for a key, best first.
+     *
+     * @param key the key to look up
+     * @param n   the number of servers wanted
+     *
+     * @return the n servers scoring highest for the key, or all servers if the ring holds fewer than n
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.lang.IllegalArgumentException if n is negative
+     */
+    public List<KetamaServer> getTop(String key, int n) {
+        Preconditions.checkArgument(n >= 0, "n cannot be negative");
+
+        KetamaServer[] top = new KetamaServer[n];
+        int count = getTop(key, top);
+        return Arrays.asList(top).subList(0, count);
+    }
+
+    @Override
+    public synchronized void add(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        add(Collections.singleton(server));
+    }
+
+    @Override
+    public synchronized void add(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        boolean changed = false;
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            if (!this.servers.containsKey(server)) {
+                this.servers.put(server, server);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            publish();
+        }
+    }
+
+    @Override
+    public synchronized void remove(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        remove(Collections.singleton(server));
+    }
+
+    @Override
+    public synchronized void remove(Set<KetamaServer> servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        boolean changed = false;
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            changed |= this.servers.remove(server) != null;
+        }
+
+        if (changed) {
+            publish();
+        }
+    }
+
+    /**
+     * Synchronize the ring with the provided set of servers. Servers in both the ring and the set take the weight of
+     * the server in the set.
+     */
+    @Override
+    public synchronized void synchronizeRing(Set<KetamaServer> newServers) {
+        Preconditions.checkNotNull(newServers, "newServers cannot be null");
+
+        Map<KetamaServer, KetamaServer> next = new HashMap<KetamaServer, KetamaServer>();
+        boolean changed = newServers.size() != servers.size();
+        for (KetamaServer server : newServers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            KetamaServer current = servers.get(server);
+            changed |= current == null || current.getWeight() != server.getWeight();
+            next.put(server, server);
+        }
+
+        if (changed) {
+            servers = next;
+            publish();
+        }
+    }
+
+    @Override
+    public boolean contains(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+        return pool.serverSet.contains(server);
+    }
+
+    @Override
+    public Set<KetamaServer> getServers() {
+        return pool.serverSet;
+    }
+
+    @Override
+    public int size() {
+        return pool.servers.length;
+    }
+
+    @Override
+    public DateTime getModifiedDate() {
+        return pool.modifiedDate;
+    }
+
+    /**
+     * Mix a key hash with a server seed into 64 well distributed bits, with the finalizer of SplitMix64.
+     */
+    private static long mix(long keyHash, long seed) {
+        return SplitMix.mix64((keyHash ^ seed) * SplitMix.GOLDEN_GAMMA + seed);
+    }
+
+    /**
+     * Build new arrays from the current servers and make them visible to readers. Callers must hold the ring's lock.
+     */
+    private void publish() {
+        KetamaServer[] ordered = servers.values().toArray(new KetamaServer[servers.size()]);
+        Arrays.sort(ordered, SERVER_ORDER);
+
+        long[] seeds = new long[ordered.length];
+        double[] weights = new double[ordered.length];
+        boolean weighted = false;
+        for (int i = 0 ; i < ordered.length ; i++) {
+            seeds[i] = mix(keyHashFunction.calculateHash(ordered[i].getName()), SplitMix.GOLDEN_GAMMA);
+            weights[i] = ordered[i].getWeight();
+            weighted |= weights[i] != weights[0];
+        }
+
+        pool = new Pool(ordered, seeds, weights, weighted, DateTime.now(DateTimeZone.UTC));
+    }
+
+    /**
+     * An immutable view of the servers at one point in time, with the seed and weight of each server in parallel
+     * arrays.
+     */
+    private static final class Pool {
+
+        private final KetamaServer[] servers;
+        private final long[] seeds;
+        private final double[] weights;
+        private final boolean weighted;
+        private final Set<KetamaServer> serverSet;
+        private final DateTime modifiedDate;
+
+        private Pool(KetamaServer[] servers, long[] seeds, double[] weights, boolean weighted, DateTime modifiedDate) {
+            this.servers = servers;
+            this.seeds = seeds;
+            this.weights = weights;
+            this.weighted = weighted;
+            this.serverSet = ImmutableSet.copyOf(servers);
+            this.modifiedDate = modifiedDate;
+        }
+
+        /**
+         * Score a server for a key. Unweighted scores are the mixed hash as an unsigned value in [0, 1), which orders
+         * servers the same way as -1 / ln(u) would.
+         */
+        private double score(long keyHash, int index) {
+            double u = ((mix(keyHash, seeds[index]) >>> 11) + 0.5) * UNIT;
+            return weighted ? -weights[index] / Math.log(u) : u;
+        }
+
+        /**
+         * Find the server ranked right after the provided one, ordering by descending score and then by ascending
+         * index. Pass a score of positive infinity and an index of -1 to find the best server.
+         */
+        private int next(long keyHash, double afterScore, int afterIndex) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0 ; i < servers.length ; i++) {
+                double score = score(keyHash, i);
+                boolean ranksAfter = score < afterScore || (score == afterScore && i > afterIndex);
+                if (ranksAfter && (best < 0 || score > bestScore)) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+    }
+}
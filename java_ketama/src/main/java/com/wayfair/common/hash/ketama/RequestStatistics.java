@@ -0,0 +1,295 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Longs;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the lookups a KetamaRing routes to each server and tracks the keys looked up most often. Attach it to a ring
+ * with KetamaRing.setStatistics(RequestStatistics); a ring without statistics pays nothing for them.
+ * <p/>
+ * Per-server counts are kept in striped counters: each thread increments one of several padded cells, so threads
+ * rarely contend on a cache line, and the cells are summed when the statistics are read. Per-server counts are exact.
+ * <p/>
+ * Hot keys are found with a count-min sketch, which estimates the count of every key in fixed memory, plus a small
+ * set of the keys with the highest estimates. Updating the sketch touches one random cache line per row, which costs
+ * more than everything else together, so only a sample of the lookups is fed to it: one in sampleInterval lookups, by
+ * default DEFAULT_SAMPLE_INTERVAL, and hot key counts are scaled back up. Each lookup is sampled by mixing the hash of
+ * its key with the count of its server so far, so the sample is spread over every key, and a repeating pattern of
+ * lookups cannot line up with the sampling and hide one key while counting another many times over. With a sample
+ * interval of 1 the sketch sees every lookup and its estimates never undercount. A key is only offered to the hot
+ * set when its estimate exceeds the lowest estimate in it, and then only on every OFFER_INTERVAL-th sample.
+ * <p/>
+ * The ring resolves the counter of each server when it publishes a snapshot, so recording a lookup never hashes the
+ * server.
+ * <p/>
+ * This class is thread-safe, and can be read with getSnapshot() at any time.
+ */
+public final class RequestStatistics {
+
+    public static final int DEFAULT_HOT_KEYS = 16;
+    public static final int DEFAULT_SKETCH_WIDTH = 4096;
+    public static final int DEFAULT_SKETCH_DEPTH = 4;
+    public static final int DEFAULT_SAMPLE_INTERVAL = 8;
+    public static final int MAX_SKETCH_WIDTH = 1 << 16;
+
+    // a power of two; a key above the threshold is offered when its estimate is a multiple of it
+    private static final int OFFER_INTERVAL = 4;
+
+    private final ConcurrentMap<KetamaServer, StripedCounter> serverCounts =
+            new ConcurrentHashMap<KetamaServer, StripedCounter>();
+    private final AtomicLongArray sketch;
+    private final int sketchWidth;
+    private final int sketchDepth;
+    private final int hotKeyCount;
+    private final int sampleMask;
+    // each hot key maps to its hash, so its estimate can be read back from the sketch
+    private final ConcurrentMap<String, Long> hotKeys = new ConcurrentHashMap<String, Long>();
+    private volatile long hotKeyThreshold = 0;
+
+    /**
+     * Create statistics tracking the DEFAULT_HOT_KEYS hottest keys with a DEFAULT_SKETCH_DEPTH by
+     * DEFAULT_SKETCH_WIDTH sketch, sampling every DEFAULT_SAMPLE_INTERVAL-th lookup.
+     */
+    public RequestStatistics() {
+        this(DEFAULT_HOT_KEYS, DEFAULT_SKETCH_WIDTH, DEFAULT_SKETCH_DEPTH, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Create statistics with the provided number of hot keys, sketch size and sample interval. The estimates of a
+     * sketch of width w overcount by at most about e / w of the sampled lookups, with a probability of failure that
+     * falls exponentially with its depth.
+     *
+     * @param hotKeyCount    the number of hot keys to track
+     * @param sketchWidth    the number of counters per row of the sketch, which must be a power of two no greater than
+     *                       MAX_SKETCH_WIDTH
+     * @param sketchDepth    the number of rows of the sketch
+     * @param sampleInterval one in how many lookups is fed to the sketch, which must be a power of two
+     *
+     * @throws java.lang.IllegalArgumentException if hotKeyCount or sketchDepth is less than 1, or sketchWidth is not a
+     * power of two no greater than MAX_SKETCH_WIDTH, or sampleInterval is not a power of two
+     */
+    public RequestStatistics(int hotKeyCount, int sketchWidth, int sketchDepth, int sampleInterval) {
+        Preconditions.checkArgument(hotKeyCount > 0, "hotKeyCount must be greater than 0");
+        Preconditions.checkArgument(sketchWidth > 0 && sketchWidth <= MAX_SKETCH_WIDTH && Integer.bitCount(sketchWidth) == 1,
+                "sketchWidth must be a power of two no greater than " + MAX_SKETCH_WIDTH);
+        Preconditions.checkArgument(sketchDepth > 0, "sketchDepth must be greater than 0");
+        Preconditions.checkArgument(sampleInterval > 0 && Integer.bitCount(sampleInterval) == 1,
+                "sampleInterval must be a power of two");
+
+        this.hotKeyCount = hotKeyCount;
+        this.sampleMask = sampleInterval - 1;
+        this.sketchWidth = sketchWidth;
+        this.sketchDepth = sketchDepth;
+        this.sketch = new AtomicLongArray(sketchWidth * sketchDepth);
+    }
+
+    /**
+     * Get the striped counter of a server, creating it on first use. The ring calls this when it publishes a snapshot
+     * and passes the counter back to record.
+     *
+     * @param server the server to get the counter of
+     *
+     * @return the counter of the server
+     */
+    StripedCounter counterFor(KetamaServer server) {
+        StripedCounter counter = serverCounts.get(server);
+        if (counter == null) {
+            counter = new StripedCounter();
+            StripedCounter existing = serverCounts.putIfAbsent(server, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Record a lookup of a key that was routed to a server.
+     *
+     * @param serverCounter the counter of the server the key was routed to, from counterFor
+     * @param key           the key looked up
+     * @param keyHash       the hash of the key, which the sketch derives its row hashes from
+     */
+    void record(StripedCounter serverCounter, String key, long keyHash) {
+        long count = serverCounter.increment();
+        if ((SplitMix.mix64(keyHash + count * SplitMix.GOLDEN_GAMMA) & sampleMask) != 0) {
+            return;
+        }
+
+        // one mix yields the column of every row
+        long hash = SplitMix.mix64(keyHash);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0 ; row < sketchDepth ; row++) {
+            estimate = Math.min(estimate, sketch.incrementAndGet(sketchIndex(hash, row)));
+        }
+
+        if (estimate > hotKeyThreshold && (estimate & (OFFER_INTERVAL - 1)) == 0 && !hotKeys.containsKey(key)) {
+            offerHotKey(key, keyHash);
+        }
+    }
+
+    /**
+     * Read the statistics as they are now. Counts recorded while the snapshot is taken may or may not be included.
+     *
+     * @return the current statistics
+     */
+    public Snapshot getSnapshot() {
+        ImmutableMap.Builder<KetamaServer, Long> counts = ImmutableMap.builder();
+        long total = 0;
+        for (Map.Entry<KetamaServer, StripedCounter> entry : serverCounts.entrySet()) {
+            long count = entry.getValue().sum();
+            counts.put(entry.getKey(), count);
+            total += count;
+        }
+
+        List<HotKey> keys = new ArrayList<HotKey>();
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            keys.add(new HotKey(entry.getKey(), estimate(entry.getValue()) * (sampleMask + 1)));
+        }
+        Collections.sort(keys);
+
+        return new Snapshot(total, counts.build(), ImmutableList.copyOf(keys));
+    }
+
+    /**
+     * Pick the column of a row from the mixed key hash. Each of the first four rows takes its own 16 bits of the hash;
+     * further rows mix it again.
+     */
+    private int sketchIndex(long hash, int row) {
+        long rowHash = row < 4 ? hash : SplitMix.mix64(hash + row * SplitMix.GOLDEN_GAMMA);
+        return row * sketchWidth + ((int) (rowHash >>> ((row & 3) * 16)) & (sketchWidth - 1));
+    }
+
+    private long estimate(long keyHash) {
+        long hash = SplitMix.mix64(keyHash);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0 ; row < sketchDepth ; row++) {
+            estimate = Math.min(estimate, sketch.get(sketchIndex(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Add a key to the hot keys, evicting the coldest one if there are too many, and raise the threshold a key must
+     * pass to be offered to the lowest estimate left.
+     */
+    private synchronized void offerHotKey(String key, long keyHash) {
+        if (hotKeys.containsKey(key)) {
+            return;
+        }
+        hotKeys.put(key, keyHash);
+
+        String coldest = null;
+        long coldestEstimate = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            long estimate = estimate(entry.getValue());
+            if (estimate < coldestEstimate) {
+                coldest = entry.getKey();
+                coldestEstimate = estimate;
+            }
+        }
+
+        if (hotKeys.size() > hotKeyCount) {
+            hotKeys.remove(coldest);
+
+            coldestEstimate = Long.MAX_VALUE;
+            for (Long hash : hotKeys.values()) {
+                coldestEstimate = Math.min(coldestEstimate, estimate(hash));
+            }
+        }
+
+        // until the set is full, every new key is offered
+        hotKeyThreshold = hotKeys.size() < hotKeyCount ? 0 : coldestEstimate;
+    }
+
+    /**
+     * A key looked up often, with an estimate of how often.
+     */
+    public static final class HotKey implements Comparable<HotKey> {
+
+        private final String key;
+        private final long count;
+
+        private HotKey(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the estimated number of lookups of the key, scaled up from the sampled lookups
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public int compareTo(HotKey other) {
+            return Longs.compare(other.count, count);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count;
+        }
+    }
+
+    /**
+     * The statistics at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long total;
+        private final Map<KetamaServer, Long> serverCounts;
+        private final List<HotKey> hotKeys;
+
+        private Snapshot(long total, Map<KetamaServer, Long> serverCounts, List<HotKey> hotKeys) {
+            this.total = total;
+            this.serverCounts = serverCounts;
+            this.hotKeys = hotKeys;
+        }
+
+        /**
+         * @return the total number of lookups recorded
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @return an unmodifiable map of each server to the number of lookups routed to it
+         */
+        public Map<KetamaServer, Long> getServerCounts() {
+            return serverCounts;
+        }
+
+        /**
+         * @return the average number of lookups per server that received any, or 0 if there were none
+         */
+        public double getAverage() {
+            return serverCounts.isEmpty() ? 0 : total / (double) serverCounts.size();
+        }
+
+        /**
+         * @return an unmodifiable list of the hottest keys, most looked up first
+         */
+        public List<HotKey> getHotKeys() {
+            return hotKeys;
+        }
+
+        @Override
+        public String toString() {
+            return "total=" + total + ", servers=" + serverCounts + ", hotKeys=" + hotKeys;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the binary snapshot format of a KetamaRing.
+ * <p/>
+ * A snapshot holds a header (magic, format version, class names of the server hash strategy and key hash function,
+ * points per server and modified date), the server table, the sorted points with the index of the server owning each
+ * one, and finally a CRC32 checksum of everything before it. All values are big-endian.
+ * <p/>
+ * Version 2 added the zone and rack of each server to the server table. Version 1 snapshots are still read, with no
+ * labels on any server.
+ */
+final class RingSnapshotFormat {
+
+    private static final int MAGIC = 0x4b545253; // "KTRS"
+    private static final int VERSION = 2;
+    private static final int UNLABELED_VERSION = 1;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private RingSnapshotFormat() {
+    }
+
+    /**
+     * The contents of a snapshot.
+     */
+    static final class Contents {
+
+        final KetamaServer[] servers;
+        final SortedArrayContinuum continuum;
+        final DateTime modifiedDate;
+
+        private Contents(KetamaServer[] servers, SortedArrayContinuum continuum, DateTime modifiedDate) {
+            this.servers = servers;
+            this.continuum = continuum;
+            this.modifiedDate = modifiedDate;
+        }
+    }
+
+    static void write(OutputStream out, ServerHashStrategy serverHashStrategy, HashFunction keyHashFunction,
+                      int pointsPerServer, Set<KetamaServer> servers, SortedArrayContinuum continuum,
+                      DateTime modifiedDate) throws IOException {
+        CRC32 checksum = new CRC32();
+        DataOutputStream data = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(out), checksum));
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(serverHashStrategy.getClass().getName());
+        data.writeUTF(keyHashFunction.getClass().getName());
+        data.writeInt(pointsPerServer);
+        data.writeLong(modifiedDate == null ? NO_DATE : modifiedDate.getMillis());
+
+        Map<KetamaServer, Integer> serverIndexes = new IdentityHashMap<KetamaServer, Integer>();
+        data.writeInt(servers.size());
+        for (KetamaServer server : servers) {
+            serverIndexes.put(server, serverIndexes.size());
+            data.writeUTF(server.getName());
+            data.writeUTF(server.getHostname());
+            data.writeInt(server.getPort());
+            data.writeDouble(server.getWeight());
+            writeLabel(data, server.getZone());
+            writeLabel(data, server.getRack());
+        }
+
+        data.writeInt(continuum.size());
+        for (int i = 0 ; i < continuum.size() ; i++) {
+            data.writeLong(continuum.getPoint(i));
+        }
+        for (int i = 0 ; i < continuum.size() ; i++) {
+            data.writeInt(serverIndexes.get(continuum.getServer(i)));
+        }
+
+        // take the checksum before its own bytes pass through the checked stream
+        data.writeLong(checksum.getValue());
+        data.flush();
+    }
+
+    /**
+     * Read a snapshot, checking it was written for the given strategy, key hash function and points per server.
+     *
+     * @throws java.io.IOException if the snapshot cannot be read or is corrupt
+     * @throws java.lang.IllegalArgumentException if the snapshot was written for another configuration
+     */
+    static Contents read(InputStream in, ServerHashStrategy serverHashStrategy, HashFunction keyHashFunction,
+                         int pointsPerServer) throws IOException {
+        byte[] bytes = ByteStreams.toByteArray(in);
+        if (bytes.length < CHECKSUM_LENGTH) {
+            throw new EOFException("The snapshot is truncated");
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length - CHECKSUM_LENGTH);
+        if (checksum.getValue() != ByteBuffer.wrap(bytes, bytes.length - CHECKSUM_LENGTH, CHECKSUM_LENGTH).getLong()) {
+            throw new IOException("The snapshot checksum does not match");
+        }
+
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes, 0, bytes.length - CHECKSUM_LENGTH);
+        DataInputStream data = new DataInputStream(stream);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a ring snapshot");
+        }
+        int version = data.readInt();
+        if (version != VERSION && version != UNLABELED_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        checkMatches("server hash strategy", data.readUTF(), serverHashStrategy.getClass().getName());
+        checkMatches("key hash function", data.readUTF(), keyHashFunction.getClass().getName());
+        checkMatches("points per server", String.valueOf(data.readInt()), String.valueOf(pointsPerServer));
+
+        long modifiedMillis = data.readLong();
+        DateTime modifiedDate = modifiedMillis == NO_DATE ? null : new DateTime(modifiedMillis, DateTimeZone.UTC);
+
+        KetamaServer[] servers = new KetamaServer[data.readInt()];
+        for (int i = 0 ; i < servers.length ; i++) {
+            String name = data.readUTF();
+            String hostname = data.readUTF();
+            int port = data.readInt();
+            double weight = data.readDouble();
+            String zone = version == VERSION ? readLabel(data) : null;
+            String rack = version == VERSION ? readLabel(data) : null;
+            servers[i] = new KetamaServer(name, hostname, port, weight, zone, rack);
+        }
+
+        // read the point and server index arrays in bulk straight from the snapshot bytes
+        int pointCount = data.readInt();
+        int offset = bytes.length - CHECKSUM_LENGTH - stream.available();
+        if (pointCount < 0 || stream.available() != pointCount * 12L) {
+            throw new IOException("The snapshot point table is corrupt");
+        }
+
+        long[] points = new long[pointCount];
+        int[] serverIndexes = new int[pointCount];
+        ByteBuffer.wrap(bytes, offset, pointCount * 8).asLongBuffer().get(points);
+        ByteBuffer.wrap(bytes, offset + pointCount * 8, pointCount * 4).asIntBuffer().get(serverIndexes);
+
+        for (int i = 0 ; i < pointCount ; i++) {
+            if ((i > 0 && points[i] <= points[i - 1]) || serverIndexes[i] < 0 || serverIndexes[i] >= servers.length) {
+                throw new IOException("The snapshot point table is corrupt");
+            }
+        }
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.of(points, serverIndexes, servers);
+        verifyPlacement(serverHashStrategy, pointsPerServer, servers, continuum);
+        return new Contents(servers, continuum, modifiedDate);
+    }
+
+    /**
+     * Write a label that may be null, as a flag followed by the label if there is one.
+     */
+    private static void writeLabel(DataOutputStream data, String label) throws IOException {
+        data.writeBoolean(label != null);
+        if (label != null) {
+            data.writeUTF(label);
+        }
+    }
+
+    private static String readLabel(DataInputStream data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+
+    private static void checkMatches(String description, String actual, String expected) {
+        if (!actual.equals(expected)) {
+            throw new IllegalArgumentException("The snapshot was written with " + description + " " + actual
+                    + ", not " + expected);
+        }
+    }
+
+    /**
+     * Recompute the points of the first servers with the configured strategy and check most of them are on the
+     * continuum, or that those on it are owned by the server they were computed for. This catches strategies that
+     * share a class but not a configuration. Not every point has to be there, since removing a server also removes any
+     * point it shared with another server. Servers are checked until their points add up to those of a server of
+     * weight 1, so a light server with only a point or two cannot decide alone.
+     */
+    private static void verifyPlacement(ServerHashStrategy serverHashStrategy, int pointsPerServer,
+                                        KetamaServer[] servers, SortedArrayContinuum continuum) {
+        int expectedCount = 0;
+        int presentCount = 0;
+        boolean owned = true;
+        for (int i = 0 ; i < servers.length && expectedCount < pointsPerServer ; i++) {
+            TreeMap<Long, KetamaServer> expected = new TreeMap<Long, KetamaServer>();
+            serverHashStrategy.addServer(servers[i], expected, pointsPerServer);
+            for (Long point : expected.keySet()) {
+                expectedCount++;
+                int index = continuum.size() > 0 ? continuum.indexOf(point) : -1;
+                if (index >= 0 && continuum.getPoint(index) == point) {
+                    presentCount++;
+                    owned &= continuum.getServer(index).equals(servers[i]);
+                }
+            }
+        }
+
+        if (expectedCount > 0 && presentCount * 2 <= expectedCount && (presentCount == 0 || !owned)) {
+            throw new IllegalArgumentException("The snapshot does not match the placement of the server hash strategy");
+        }
+    }
+}
@@ -2,13 +2,17 @@ package com.wayfair.common.hash.ketama;
 
 import java.util.TreeMap;
 
+/**
+ * Places servers on a continuum. Implementations give each server a number of points proportional to its weight,
+ * as returned by KetamaServer.getPoints(pointsPerServer).
+ */
 public interface ServerHashStrategy {
     /**
      * Add a server to a continuum.
      *
      * @param server the server to be added
      * @param continuum the continuum to which the server will be added
-     * @param pointsPerServer the number of points on the continuum the server will be associated with; must be greater than 0
+     * @param pointsPerServer the number of points on the continuum a server of weight 1 will be associated with; must be greater than 0
      *
      * @throws java.lang.NullPointerException if server is null
      * @throws  java.lang.NullPointerException if continuum is null
@@ -21,7 +25,7 @@ public interface ServerHashStrategy {
      *
      * @param server the server to be remove
      * @param continuum the continuum to which the server will be removed
-     * @param pointsPerServer the number of points on the continuum the server was associated with when added; must be greater than 0
+     * @param pointsPerServer the number of points on the continuum a server of weight 1 was associated with when added; must be greater than 0
      *
      * @throws java.lang.NullPointerException if server is null
      * @throws  java.lang.NullPointerException if continuum is null
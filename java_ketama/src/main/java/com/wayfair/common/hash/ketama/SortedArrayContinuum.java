@@ -0,0 +1,723 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An immutable continuum backed by a sorted array of primitive points and a parallel array of server indexes. Lookups
+ * are a binary search over the point array, which avoids the boxed keys and per-entry objects of a TreeMap.
+ * <p/>
+ * Instances are built from the TreeMap a ServerHashStrategy populates, or from another continuum and a set of changes
+ * merged into it in one linear pass, and never change afterwards.
+ * <p/>
+ * The arrays are kept on the heap, or, after toOffHeap(), in a direct buffer outside of it. An off-heap continuum
+ * costs the garbage collector a handful of small objects however many points it has, which matters for processes
+ * holding many large rings, and lookups on it binary search the buffer in place. Its memory is returned to the system
+ * once the continuum is garbage collected.
+ * <p/>
+ * Each point also records the index of the next point, clockwise, owned by a different server, so walks for replicas
+ * skip over runs of points owned by one server. Walks for replicas in distinct failure domains use a second such index
+ * per FailureDomain, pointing from each point to the next one owned by a server in another domain. It is built, on
+ * the heap, the first time a domain is asked for, and kept for the life of the continuum.
+ */
+public final class SortedArrayContinuum {
+
+    private static final SortedArrayContinuum EMPTY = new SortedArrayContinuum(new long[0], new int[0], new KetamaServer[0]);
+
+    private final ContinuumStorage storage;
+    private final int size;
+    private final KetamaServer[] servers;
+    private final int ownerCount;
+    // the next point in another failure domain, by FailureDomain ordinal, built when first needed
+    private final AtomicReferenceArray<DomainIndex> domainIndexes =
+            new AtomicReferenceArray<DomainIndex>(FailureDomain.values().length);
+
+    private SortedArrayContinuum(long[] points, int[] serverIndexes, KetamaServer[] servers) {
+        this.servers = servers;
+        this.ownerCount = ownerCount(serverIndexes, servers.length);
+        this.storage = ContinuumStorage.onHeap(points, serverIndexes, nextDistinct(serverIndexes, ownerCount));
+        this.size = points.length;
+    }
+
+    private SortedArrayContinuum(ContinuumStorage storage, KetamaServer[] servers, int ownerCount) {
+        this.storage = storage;
+        this.size = storage.size();
+        this.servers = servers;
+        this.ownerCount = ownerCount;
+    }
+
+    /**
+     * Count the servers owning at least one point, which can be fewer than the servers passed to of(...).
+     */
+    private static int ownerCount(int[] serverIndexes, int serverCount) {
+        boolean[] owners = new boolean[serverCount];
+        int count = 0;
+        for (int serverIndex : serverIndexes) {
+            if (!owners[serverIndex]) {
+                owners[serverIndex] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * For every point, find the index of the next point clockwise owned by another server, or -1 if there is only one
+     * server. Walking backwards twice around the continuum carries the answer from each change of owner to the run of
+     * points before it.
+     */
+    private static int[] nextDistinct(int[] serverIndexes, int serverCount) {
+        int length = serverIndexes.length;
+        int[] nextDistinct = new int[length];
+        if (serverCount < 2) {
+            Arrays.fill(nextDistinct, -1);
+            return nextDistinct;
+        }
+
+        int next = -1;
+        for (int v = 2 * length - 1 ; v >= 0 ; v--) {
+            int i = v % length;
+            int j = (v + 1) % length;
+            if (serverIndexes[j] != serverIndexes[i]) {
+                next = j;
+            }
+            if (v < length) {
+                nextDistinct[i] = next;
+            }
+        }
+
+        return nextDistinct;
+    }
+
+    /**
+     * Get an empty continuum.
+     *
+     * @return a continuum with no points
+     */
+    public static SortedArrayContinuum empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a continuum holding the same points as the provided map.
+     *
+     * @param continuum a map of points on the continuum to the server owning each point
+     *
+     * @return a new continuum with the points of the provided map
+     *
+     * @throws java.lang.NullPointerException if continuum is null
+     */
+    public static SortedArrayContinuum from(SortedMap<Long, KetamaServer> continuum) {
+        Preconditions.checkNotNull(continuum, "continuum cannot be null");
+
+        if (continuum.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] points = new long[continuum.size()];
+        int[] serverIndexes = new int[continuum.size()];
+        Map<KetamaServer, Integer> indexes = new HashMap<KetamaServer, Integer>();
+        List<KetamaServer> servers = new ArrayList<KetamaServer>();
+
+        int i = 0;
+        for (Map.Entry<Long, KetamaServer> entry : continuum.entrySet()) {
+            Integer index = indexes.get(entry.getValue());
+            if (index == null) {
+                index = servers.size();
+                indexes.put(entry.getValue(), index);
+                servers.add(entry.getValue());
+            }
+
+            points[i] = entry.getKey();
+            serverIndexes[i] = index;
+            i++;
+        }
+
+        return new SortedArrayContinuum(points, serverIndexes, servers.toArray(new KetamaServer[servers.size()]));
+    }
+
+    /**
+     * Create a continuum around existing arrays, which must not be changed afterwards.
+     *
+     * @param points        the points, sorted in ascending order
+     * @param serverIndexes the index in servers of the server owning each point
+     * @param servers       the servers owning the points
+     */
+    static SortedArrayContinuum of(long[] points, int[] serverIndexes, KetamaServer[] servers) {
+        return points.length == 0 ? EMPTY : new SortedArrayContinuum(points, serverIndexes, servers);
+    }
+
+    /**
+     * Create a continuum with a sequence of changes applied to this one, in one pass over both once the changes are
+     * merged. The result is the continuum from(...) would build from a TreeMap holding the points of this one after
+     * putting or removing the points of each change in turn, including the order of its server table. A replaced
+     * server keeps its points, owned by its new instance.
+     *
+     * @param changes the changes to apply
+     *
+     * @return a continuum with the changes applied, kept on the heap, or this one if there are none
+     */
+    SortedArrayContinuum apply(PointChanges changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+
+        PointRun changed = changes.merge();
+        int capacity = size + changed.size;
+        long[] mergedPoints = new long[capacity];
+        // owners below servers.length index this continuum's server table, the others are a change order plus it
+        int[] owners = new int[capacity];
+
+        int i = 0;
+        int count = 0;
+        for (int c = 0 ; c < changed.size ; c++) {
+            long point = changed.points[c];
+            while (i < size && storage.point(i) < point) {
+                mergedPoints[count] = storage.point(i);
+                owners[count++] = storage.serverIndex(i++);
+            }
+            if (i < size && storage.point(i) == point) {
+                i++;
+            }
+
+            int order = changed.orders[c];
+            if (changes.owner(order) != null) {
+                mergedPoints[count] = point;
+                owners[count++] = servers.length + order;
+            }
+        }
+        while (i < size) {
+            mergedPoints[count] = storage.point(i);
+            owners[count++] = storage.serverIndex(i++);
+        }
+
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        // number the owners in order of their first point, merging equal servers as from(...) does
+        int[] remap = new int[servers.length + changes.count()];
+        Arrays.fill(remap, -1);
+        Map<KetamaServer, Integer> indexes = new HashMap<KetamaServer, Integer>();
+        List<KetamaServer> table = new ArrayList<KetamaServer>();
+        for (int j = 0 ; j < count ; j++) {
+            int owner = owners[j];
+            if (remap[owner] < 0) {
+                KetamaServer server = changes.instanceOf(owner < servers.length ? servers[owner]
+                        : changes.owner(owner - servers.length));
+                Integer index = indexes.get(server);
+                if (index == null) {
+                    index = table.size();
+                    indexes.put(server, index);
+                    table.add(server);
+                }
+                remap[owner] = index;
+            }
+            owners[j] = remap[owner];
+        }
+
+        return new SortedArrayContinuum(count == capacity ? mergedPoints : Arrays.copyOf(mergedPoints, count),
+                count == capacity ? owners : Arrays.copyOf(owners, count), table.toArray(new KetamaServer[table.size()]));
+    }
+
+    /**
+     * Get the server owning the first point greater than or equal to the hash value, wrapping to the first point if the
+     * hash value is greater than all points.
+     *
+     * @param hashValue the hash value to look up
+     *
+     * @return the server owning the point the hash value maps to
+     *
+     * @throws java.util.NoSuchElementException if the continuum is empty
+     */
+    public KetamaServer get(long hashValue) {
+        return servers[storage.serverIndex(indexOf(hashValue))];
+    }
+
+    /**
+     * Get the index of the first point greater than or equal to the hash value, wrapping to 0 if the hash value is
+     * greater than all points.
+     *
+     * @param hashValue the hash value to look up
+     *
+     * @return the index of the point the hash value maps to
+     *
+     * @throws java.util.NoSuchElementException if the continuum is empty
+     */
+    public int indexOf(long hashValue) {
+        if (size == 0) {
+            throw new NoSuchElementException("The continuum is empty!");
+        }
+
+        int low = 0;
+        int high = size - 1;
+
+        // all points are below hashValue, so wrap to the beginning
+        if (storage.point(high) < hashValue) {
+            return 0;
+        }
+
+        // find the lowest point greater than or equal to hashValue; the point at high always qualifies
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (storage.point(mid) < hashValue) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Get the point at the given index.
+     *
+     * @param index the index of the point, between 0 and size() - 1
+     *
+     * @return the point at the given index
+     */
+    public long getPoint(int index) {
+        return storage.point(index);
+    }
+
+    /**
+     * Get the server owning the point at the given index.
+     *
+     * @param index the index of the point, between 0 and size() - 1
+     *
+     * @return the server owning the point at the given index
+     */
+    public KetamaServer getServer(int index) {
+        return servers[storage.serverIndex(index)];
+    }
+
+    /**
+     * Get the index of the next point, clockwise from the given one, that is owned by a different server.
+     *
+     * @param index the index of the point, between 0 and size() - 1
+     *
+     * @return the index of the next point owned by another server, or -1 if every point has the same server
+     */
+    public int nextDistinct(int index) {
+        return storage.nextDistinct(index);
+    }
+
+    /**
+     * Fill an array with the distinct servers found walking clockwise from the point a hash value maps to. The first
+     * server is the one get(long) returns. Runs of points owned by one server are skipped in a single step, and no
+     * objects are allocated.
+     *
+     * @param hashValue the hash value to start from
+     * @param servers   the array to fill; its length is the number of servers wanted
+     *
+     * @return the number of servers written to the array, which is the smaller of its length and the number of
+     * servers on the continuum
+     *
+     * @throws java.lang.NullPointerException if servers is null
+     */
+    public int getDistinct(long hashValue, KetamaServer[] servers) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        return getDistinct(hashValue, servers, (AtomicIntegerArray) null);
+    }
+
+    /**
+     * Fill an array with the distinct live servers found walking clockwise from the point a hash value maps to.
+     *
+     * @param down flags indexed by server index, non-zero for servers that are down; null if all servers are live
+     *
+     * @return the number of servers written to the array
+     */
+    int getDistinct(long hashValue, KetamaServer[] servers, AtomicIntegerArray down) {
+        if (servers.length == 0 || size == 0) {
+            return 0;
+        }
+
+        int index = indexOf(hashValue);
+        int found = 0;
+        int travelled = 0;
+        while (true) {
+            int serverIndex = storage.serverIndex(index);
+            if (down == null || down.get(serverIndex) == 0) {
+                // the next owner differs from the current one, but may still be one found earlier in the walk
+                KetamaServer server = this.servers[serverIndex];
+                boolean seen = false;
+                for (int i = 0 ; i < found && !seen ; i++) {
+                    seen = servers[i] == server;
+                }
+                if (!seen) {
+                    servers[found++] = server;
+                    if (found == servers.length || found == ownerCount) {
+                        return found;
+                    }
+                }
+            }
+
+            // stop once the walk has gone all the way around the continuum
+            int next = storage.nextDistinct(index);
+            if (next < 0) {
+                return found;
+            }
+            travelled += next > index ? next - index : next + size - index;
+            if (travelled >= size) {
+                return found;
+            }
+            index = next;
+        }
+    }
+
+    /**
+     * Get the index of the next point, clockwise from the given one, that is owned by a server in another failure
+     * domain than the server owning the given point.
+     *
+     * @param index  the index of the point, between 0 and size() - 1
+     * @param domain the level of failure domain
+     *
+     * @return the index of the next point in another domain, or -1 if every point is in the same domain
+     *
+     * @throws java.lang.NullPointerException if domain is null
+     */
+    public int nextInOtherDomain(int index, FailureDomain domain) {
+        Preconditions.checkNotNull(domain, "domain cannot be null");
+
+        return domainIndex(domain).next[index];
+    }
+
+    /**
+     * Fill an array with servers in distinct failure domains, found walking clockwise from the point a hash value maps
+     * to. The first server is the one get(long) returns, and each following one is the first server clockwise in a
+     * domain none of the servers before it is in. Once the index for the domain is built no objects are allocated.
+     *
+     * @param hashValue the hash value to start from
+     * @param servers   the array to fill; its length is the number of servers wanted
+     * @param domain    the level of failure domain the servers must be distinct at
+     *
+     * @return the number of servers written to the array, which is the smaller of its length and the number of
+     * domains on the continuum
+     *
+     * @throws java.lang.NullPointerException if servers is null
+     * @throws java.lang.NullPointerException if domain is null
+     */
+    public int getDistinct(long hashValue, KetamaServer[] servers, FailureDomain domain) {
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+        Preconditions.checkNotNull(domain, "domain cannot be null");
+
+        return getDistinct(hashValue, servers, null, domain);
+    }
+
+    /**
+     * Fill an array with live servers in distinct failure domains, found walking clockwise from the point a hash value
+     * maps to. A live server in a new domain is taken and the walk jumps past the rest of its domain; the points of a
+     * server that is down are skipped one server at a time, so the live servers of its domain behind it are still
+     * found.
+     *
+     * @param down flags indexed by server index, non-zero for servers that are down; null if all servers are live
+     *
+     * @return the number of servers written to the array
+     */
+    int getDistinct(long hashValue, KetamaServer[] servers, AtomicIntegerArray down, FailureDomain domain) {
+        if (servers.length == 0 || size == 0) {
+            return 0;
+        }
+
+        DomainIndex domainIndex = domainIndex(domain);
+        int index = indexOf(hashValue);
+        int found = 0;
+        int travelled = 0;
+        while (true) {
+            int serverIndex = storage.serverIndex(index);
+            int next;
+            if (down == null || down.get(serverIndex) == 0) {
+                KetamaServer server = this.servers[serverIndex];
+                boolean seen = false;
+                for (int i = 0 ; i < found && !seen ; i++) {
+                    seen = domain.isSameDomain(servers[i], server);
+                }
+                if (!seen) {
+                    servers[found++] = server;
+                    if (found == servers.length || found == domainIndex.count) {
+                        return found;
+                    }
+                }
+                // the rest of this run of the domain holds no domain that is not taken
+                next = domainIndex.next[index];
+            } else {
+                next = storage.nextDistinct(index);
+            }
+
+            // stop once the walk has gone all the way around the continuum
+            if (next < 0) {
+                return found;
+            }
+            travelled += next > index ? next - index : next + size - index;
+            if (travelled >= size) {
+                return found;
+            }
+            index = next;
+        }
+    }
+
+    /**
+     * Get the index of the next point in another domain for a level of failure domain, building it if it is the first
+     * time the level is asked for. Threads racing to build it build equal indexes, so either one can be kept.
+     */
+    private DomainIndex domainIndex(FailureDomain domain) {
+        DomainIndex domainIndex = domainIndexes.get(domain.ordinal());
+        if (domainIndex == null) {
+            domainIndex = buildDomainIndex(domain);
+            domainIndexes.set(domain.ordinal(), domainIndex);
+        }
+        return domainIndex;
+    }
+
+    private DomainIndex buildDomainIndex(FailureDomain domain) {
+        int[] domainsByServer = new int[servers.length];
+        Map<Object, Integer> domainIds = new HashMap<Object, Integer>();
+        for (int i = 0 ; i < servers.length ; i++) {
+            Object key = domain.domainOf(servers[i]);
+            Integer id = domainIds.get(key);
+            if (id == null) {
+                id = domainIds.size();
+                domainIds.put(key, id);
+            }
+            domainsByServer[i] = id;
+        }
+
+        int[] domains = new int[size];
+        for (int i = 0 ; i < size ; i++) {
+            domains[i] = domainsByServer[storage.serverIndex(i)];
+        }
+
+        int count = ownerCount(domains, domainIds.size());
+        return new DomainIndex(nextDistinct(domains, count), count);
+    }
+
+    /**
+     * Get the index of the point a hash value maps to, skipping the points of servers that are down. The walk jumps
+     * over each run of points owned by one server in a single step.
+     *
+     * @param hashValue the hash value to look up
+     * @param down      flags indexed by server index, non-zero for servers that are down
+     *
+     * @return the index of the first point at or after the hash value owned by a live server, or -1 if every server
+     * on the continuum is down
+     *
+     * @throws java.util.NoSuchElementException if the continuum is empty
+     */
+    int indexOfLive(long hashValue, AtomicIntegerArray down) {
+        int index = indexOf(hashValue);
+        int travelled = 0;
+        while (down.get(storage.serverIndex(index)) != 0) {
+            int next = storage.nextDistinct(index);
+            if (next < 0) {
+                return -1;
+            }
+            travelled += next > index ? next - index : next + size - index;
+            if (travelled >= size) {
+                return -1;
+            }
+            index = next;
+        }
+        return index;
+    }
+
+    /**
+     * Get the index in the server table of the server owning the point at the given index.
+     */
+    int getServerIndex(int index) {
+        return storage.serverIndex(index);
+    }
+
+    /**
+     * Get the number of servers in the server table, which server indexes refer to.
+     */
+    int getServerCount() {
+        return servers.length;
+    }
+
+    /**
+     * Get a server by its index in the server table.
+     */
+    KetamaServer getServerAt(int serverIndex) {
+        return servers[serverIndex];
+    }
+
+    /**
+     * Get the ranges of hash values that map to a different server on the target continuum than on this one, e.g. to
+     * find the keys that move when servers are added or removed. Adjacent ranges with the same old and new server
+     * are merged. A server that only changed weight is not a change of owner.
+     *
+     * @param target the continuum to compare against
+     *
+     * @return the changed ranges in ascending order of hash value
+     *
+     * @throws java.lang.NullPointerException if target is null
+     */
+    public List<OwnershipChange> diff(SortedArrayContinuum target) {
+        Preconditions.checkNotNull(target, "target cannot be null");
+
+        List<OwnershipChange> changes = new ArrayList<OwnershipChange>();
+        int i = 0;
+        int j = 0;
+        long start = Long.MIN_VALUE;
+
+        // walk the union of both point sets; between two consecutive points neither continuum changes owner
+        while (i < size || j < target.size) {
+            long end;
+            if (j == target.size || (i < size && storage.point(i) <= target.storage.point(j))) {
+                end = storage.point(i);
+            } else {
+                end = target.storage.point(j);
+            }
+
+            addChange(changes, start, end, ownerAt(i), target.ownerAt(j));
+
+            if (i < size && storage.point(i) == end) {
+                i++;
+            }
+            if (j < target.size && target.storage.point(j) == end) {
+                j++;
+            }
+            if (end == Long.MAX_VALUE) {
+                return changes;
+            }
+            start = end + 1;
+        }
+
+        // past the last point both continuums wrap to their first point
+        addChange(changes, start, Long.MAX_VALUE, ownerAt(0), target.ownerAt(0));
+        return changes;
+    }
+
+    /**
+     * Iterate over the ranges of hash values that map to a server, in ascending order. Consecutive points owned by the
+     * server are merged into one arc, and the arcs are computed as the iterator advances.
+     *
+     * @param server the server to get the arcs of
+     *
+     * @return an iterator over the arcs owned by the server, which is empty if the server has no points
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public Iterator<ContinuumArc> arcs(final KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        return new AbstractIterator<ContinuumArc>() {
+
+            private int index = 0;
+            private boolean wrapped = false;
+
+            @Override
+            protected ContinuumArc computeNext() {
+                while (index < size && !server.equals(getServer(index))) {
+                    index++;
+                }
+
+                if (index < size) {
+                    long start = index == 0 ? Long.MIN_VALUE : storage.point(index - 1) + 1;
+                    while (index + 1 < size && server.equals(getServer(index + 1))) {
+                        index++;
+                    }
+                    return new ContinuumArc(start, storage.point(index++), server);
+                }
+
+                // the hash values past the last point wrap to the first point
+                if (!wrapped && size > 0 && storage.point(size - 1) != Long.MAX_VALUE
+                        && server.equals(getServer(0))) {
+                    wrapped = true;
+                    return new ContinuumArc(storage.point(size - 1) + 1, Long.MAX_VALUE, server);
+                }
+
+                return endOfData();
+            }
+        };
+    }
+
+    private KetamaServer ownerAt(int index) {
+        if (size == 0) {
+            return null;
+        }
+        return getServer(index < size ? index : 0);
+    }
+
+    private static void addChange(List<OwnershipChange> changes, long start, long end, KetamaServer oldServer,
+                                  KetamaServer newServer) {
+        if (Objects.equal(oldServer, newServer)) {
+            return;
+        }
+
+        if (!changes.isEmpty()) {
+            OwnershipChange last = changes.get(changes.size() - 1);
+            if (last.getEnd() == start - 1 && Objects.equal(last.getOldServer(), oldServer)
+                    && Objects.equal(last.getNewServer(), newServer)) {
+                changes.set(changes.size() - 1, new OwnershipChange(last.getStart(), end, oldServer, newServer));
+                return;
+            }
+        }
+
+        changes.add(new OwnershipChange(start, end, oldServer, newServer));
+    }
+
+    /**
+     * Returns true if the points of the continuum are kept in a direct buffer outside of the heap.
+     *
+     * @return true if the continuum is off the heap
+     */
+    public boolean isOffHeap() {
+        return storage.isOffHeap();
+    }
+
+    /**
+     * Copy the continuum into a direct buffer outside of the heap. Lookups on the copy give the same results.
+     *
+     * @return a copy of the continuum off the heap, or this one if it is already off the heap or empty
+     */
+    public SortedArrayContinuum toOffHeap() {
+        if (storage.isOffHeap() || size == 0) {
+            return this;
+        }
+        return new SortedArrayContinuum(storage.toOffHeap(), servers, ownerCount);
+    }
+
+    /**
+     * Copy the continuum back onto the heap.
+     *
+     * @return a copy of the continuum on the heap, or this one if it is already on the heap
+     */
+    public SortedArrayContinuum toOnHeap() {
+        if (!storage.isOffHeap()) {
+            return this;
+        }
+        return new SortedArrayContinuum(storage.toOnHeap(), servers, ownerCount);
+    }
+
+    /**
+     * Get the number of points on the continuum.
+     *
+     * @return the number of points on the continuum
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * For every point, the index of the next point clockwise in another failure domain, and the number of domains
+     * owning points.
+     */
+    private static final class DomainIndex {
+
+        private final int[] next;
+        private final int count;
+
+        private DomainIndex(int[] next, int count) {
+            this.next = next;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.wayfair.common.hash.ketama;
+
+/**
+ * The finalizer of the SplitMix64 generator, used to derive well distributed 64-bit values from hashes that are only
+ * 32 bits wide or are correlated with each other.
+ */
+final class SplitMix {
+
+    static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private SplitMix() {
+    }
+
+    /**
+     * Mix the bits of a value so that every input bit affects every output bit.
+     *
+     * @param value the value to mix
+     *
+     * @return the mixed value
+     */
+    static long mix64(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
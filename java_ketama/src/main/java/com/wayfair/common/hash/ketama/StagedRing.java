@@ -0,0 +1,155 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A change of membership to a KetamaRing, computed ahead of time by KetamaRing.prepare(Set, ExecutorService) and not
+ * yet visible to lookups on the ring. It holds the new continuum, ready to be swapped in, and a summary of what
+ * changes: the servers added, updated and removed, and the ranges of hash values that move to another server.
+ * <p/>
+ * A preview ring with the staged membership can route keys, e.g. to measure its balance with DistributionReport,
+ * before any traffic sees it. Committing publishes the staged continuum on the ring in one step, under the ring's
+ * lock, without hashing or merging anything. A staged ring is stale once the ring's servers or points change after it
+ * was prepared, and can then no longer be committed; it should be discarded and the change prepared again.
+ * <p/>
+ * This implementation is thread-safe.
+ */
+public final class StagedRing {
+
+    private final KetamaRing ring;
+    // the count of changes the ring had made when the staged ring was prepared
+    final long changeCount;
+    final Set<KetamaServer> added;
+    final Set<KetamaServer> updated;
+    final Set<KetamaServer> removed;
+    // the points of every added and updated server
+    final Map<KetamaServer, long[]> points;
+    final SortedArrayContinuum continuum;
+    private final List<OwnershipChange> changes;
+    private final KetamaRing preview;
+    private boolean committed;
+    private boolean discarded;
+
+    StagedRing(KetamaRing ring, long changeCount, Set<KetamaServer> added, Set<KetamaServer> updated,
+               Set<KetamaServer> removed, Map<KetamaServer, long[]> points, SortedArrayContinuum continuum,
+               List<OwnershipChange> changes, KetamaRing preview) {
+        this.ring = ring;
+        this.changeCount = changeCount;
+        this.added = ImmutableSet.copyOf(added);
+        this.updated = ImmutableSet.copyOf(updated);
+        this.removed = ImmutableSet.copyOf(removed);
+        this.points = points;
+        this.continuum = continuum;
+        this.changes = ImmutableList.copyOf(changes);
+        this.preview = preview;
+    }
+
+    /**
+     * Get the servers the change adds to the ring. The set cannot be modified.
+     *
+     * @return an unmodifiable set of the servers added
+     */
+    public Set<KetamaServer> getAdded() {
+        return added;
+    }
+
+    /**
+     * Get the servers the change keeps in the ring with a new weight or new labels. The set cannot be modified.
+     *
+     * @return an unmodifiable set of the servers updated, carrying their new weights and labels
+     */
+    public Set<KetamaServer> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Get the servers the change removes from the ring. The set cannot be modified.
+     *
+     * @return an unmodifiable set of the servers removed
+     */
+    public Set<KetamaServer> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Get the ranges of hash values that map to another server once the change is committed, as
+     * SortedArrayContinuum.diff(SortedArrayContinuum) reports them. The list cannot be modified.
+     *
+     * @return an unmodifiable list of the changed ranges in ascending order of hash value
+     */
+    public List<OwnershipChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns true if the change adds, updates or removes no server, so committing it leaves the ring as it is.
+     *
+     * @return true if there is nothing to change
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Get the continuum the ring will have once the change is committed.
+     *
+     * @return the staged continuum
+     */
+    public SortedArrayContinuum getContinuum() {
+        return continuum;
+    }
+
+    /**
+     * Get a ring with the staged membership, for routing keys before the change is committed. It is independent of
+     * the ring it was staged for: changing either does not affect the other. It has no servers marked down, no
+     * statistics or cache, and its servers may have other ids than they get on the ring.
+     *
+     * @return a ring routing keys as the ring will once the change is committed
+     */
+    public KetamaRing getPreview() {
+        return preview;
+    }
+
+    /**
+     * Returns true if the ring has changed since the staged ring was prepared, so it can no longer be committed.
+     * Marking servers down or up, or attaching statistics or a cache, does not make a staged ring stale.
+     *
+     * @return true if the staged ring is stale
+     */
+    public boolean isStale() {
+        return ring.isStale(this);
+    }
+
+    /**
+     * Publish the staged continuum and membership on the ring, unless the ring has changed since the staged ring was
+     * prepared. Lookups see either the ring as it was or the staged ring, never a mix of both.
+     *
+     * @return true if the change was committed, false if the staged ring is stale and the ring was left as it is
+     *
+     * @throws java.lang.IllegalStateException if the staged ring was already committed or discarded
+     */
+    public synchronized boolean commit() {
+        Preconditions.checkState(!committed, "The staged ring was already committed");
+        Preconditions.checkState(!discarded, "The staged ring was discarded");
+
+        committed = ring.commit(this);
+        return committed;
+    }
+
+    /**
+     * Discard the staged ring, so it can never be committed. Discarding a staged ring more than once does nothing.
+     *
+     * @throws java.lang.IllegalStateException if the staged ring was already committed
+     */
+    public synchronized void discard() {
+        Preconditions.checkState(!committed, "The staged ring was already committed");
+
+        discarded = true;
+    }
+}
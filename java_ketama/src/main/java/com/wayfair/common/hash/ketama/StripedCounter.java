@@ -0,0 +1,40 @@
+package com.wayfair.common.hash.ketama;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several padded cells, so threads incrementing it concurrently rarely contend on a cache line.
+ * Each thread increments the cell picked by its id, and the cells are summed when the counter is read.
+ */
+final class StripedCounter {
+
+    // a power of two, so a thread's stripe is a mask of its id
+    private static final int STRIPES = 16;
+    // 8 longs make 64 bytes, so every stripe sits on its own cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Increment the cell of the current thread.
+     *
+     * @return the new value of the cell, which counts the increments made by the threads sharing it
+     */
+    long increment() {
+        // thread ids are assigned in sequence, so their low bits spread threads created together over the stripes
+        return cells.incrementAndGet(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING);
+    }
+
+    /**
+     * Sum the cells. Increments made while the cells are summed may or may not be included.
+     *
+     * @return the number of increments
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0 ; i < STRIPES ; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
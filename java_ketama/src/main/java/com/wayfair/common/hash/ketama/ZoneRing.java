@@ -0,0 +1,413 @@
+package com.wayfair.common.hash.ketama;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.*;
+
+/**
+ * A two-level ring, mapping each key first to a zone, such as a datacenter or a rack, and then to a server within that
+ * zone. The zones are placed on a small KetamaRing of their own, and each zone has a KetamaRing of its servers, with
+ * a ServerHashStrategy for each level.
+ * <p/>
+ * Every continuum only holds the points of one level, so the zone continuum and each server continuum stay small
+ * enough to remain in cache, where a flat ring of every server would not. Changes to the servers of a zone only move
+ * keys within that zone, and draining a whole zone only moves the keys of that zone, which spread over the others.
+ * <p/>
+ * Zones have a weight of 1 unless set otherwise with setZoneWeight(String, double), and the zone ring places 160
+ * points per unit of weight. Zones of different capacity should be weighted in proportion to it, so that every
+ * server gets the same share of keys.
+ * <p/>
+ * A key is salted before it picks a zone, so the zone and the server within it are picked by unrelated hash values.
+ * Otherwise each zone would only ever see the slice of hash values its points cover on the zone ring, and its servers
+ * would split that slice rather than the whole ring, which balances them noticeably worse.
+ * <p/>
+ * This implementation is thread-safe. Changes are serialized, and lookups read the rings through a volatile reference
+ * without acquiring any lock.
+ */
+public class ZoneRing {
+
+    private static final String ZONE_KEY_SUFFIX = "#zone";
+
+    private ServerHashStrategy serverHashStrategy;
+    private HashFunction keyHashFunction;
+    private KetamaRing zoneRing;
+    private Map<String, Double> zoneWeights = new HashMap<String, Double>();
+    // the zone of each server, so a server cannot be in two zones at once
+    private Map<KetamaServer, String> serverZones = new HashMap<KetamaServer, String>();
+    private volatile Map<String, KetamaRing> serverRings = ImmutableMap.of();
+    private volatile DateTime modifiedDate;
+
+    /**
+     * Create an empty ZoneRing.
+     *
+     * @param zoneHashStrategy   the hashing strategy to use when distributing the zones around the zone ring
+     * @param serverHashStrategy the hashing strategy to use when distributing the servers around the ring of each zone
+     * @param keyHashFunction    the HashFunction to be used when mapping keys to points on either ring
+     *
+     * @throws java.lang.NullPointerException if zoneHashStrategy is null
+     * @throws java.lang.NullPointerException if serverHashStrategy is null
+     * @throws java.lang.NullPointerException if keyHashFunction is null
+     */
+    public ZoneRing(ServerHashStrategy zoneHashStrategy, ServerHashStrategy serverHashStrategy,
+                    HashFunction keyHashFunction) {
+        Preconditions.checkNotNull(zoneHashStrategy, "zoneHashStrategy cannot be null");
+        Preconditions.checkNotNull(serverHashStrategy, "serverHashStrategy cannot be null");
+        Preconditions.checkNotNull(keyHashFunction, "keyHashFunction cannot be null");
+
+        this.serverHashStrategy = serverHashStrategy;
+        this.keyHashFunction = keyHashFunction;
+        this.zoneRing = new KetamaRing(zoneHashStrategy, keyHashFunction);
+        this.modifiedDate = DateTime.now(DateTimeZone.UTC);
+    }
+
+    /**
+     * Add a server to a zone, creating the zone if it does not exist yet. Adding a server already in the zone does
+     * nothing.
+     *
+     * @param zone   the name of the zone
+     * @param server the server to add to the zone
+     *
+     * @throws java.lang.IllegalArgumentException if zone is blank
+     * @throws java.lang.NullPointerException if server is null
+     * @throws java.lang.IllegalArgumentException if server is already in another zone
+     */
+    public synchronized void add(String zone, KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        add(zone, Collections.singleton(server));
+    }
+
+    /**
+     * Add a set of servers to a zone, creating the zone if it does not exist yet.
+     *
+     * @param zone    the name of the zone
+     * @param servers the set of servers to add to the zone
+     *
+     * @throws java.lang.IllegalArgumentException if zone is blank
+     * @throws java.lang.NullPointerException if servers is null
+     * @throws java.lang.IllegalArgumentException if any server is already in another zone
+     */
+    public synchronized void add(String zone, Set<KetamaServer> servers) {
+        checkServers(zone, servers);
+        if (servers.isEmpty()) {
+            return;
+        }
+
+        KetamaRing ring = serverRings.get(zone);
+        if (ring == null) {
+            addZone(zone, servers);
+        } else {
+            ring.add(servers);
+        }
+        for (KetamaServer server : servers) {
+            serverZones.put(server, zone);
+        }
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+    }
+
+    /**
+     * Remove a server from its zone. Removing the last server of a zone removes the zone.
+     *
+     * @param server the server to remove
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public synchronized void remove(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        String zone = serverZones.get(server);
+        if (zone == null) {
+            return;
+        }
+
+        KetamaRing ring = serverRings.get(zone);
+        if (ring.size() == 1) {
+            removeZone(zone);
+            return;
+        }
+
+        ring.remove(server);
+        serverZones.remove(server);
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+    }
+
+    /**
+     * Synchronize a zone with the provided set of servers, as KetamaRing.synchronizeRing(Set) does. Only keys within
+     * the zone move. Synchronizing a zone with an empty set removes it.
+     *
+     * @param zone       the name of the zone
+     * @param newServers the set of servers the zone should hold
+     *
+     * @throws java.lang.IllegalArgumentException if zone is blank
+     * @throws java.lang.NullPointerException if newServers is null
+     * @throws java.lang.IllegalArgumentException if any server is already in another zone
+     */
+    public synchronized void synchronizeZone(String zone, Set<KetamaServer> newServers) {
+        checkServers(zone, newServers);
+
+        KetamaRing ring = serverRings.get(zone);
+        if (newServers.isEmpty()) {
+            removeZone(zone);
+            return;
+        }
+        if (ring == null) {
+            add(zone, newServers);
+            return;
+        }
+
+        for (KetamaServer server : ring.getServers()) {
+            if (!newServers.contains(server)) {
+                serverZones.remove(server);
+            }
+        }
+        ring.synchronizeRing(newServers);
+        for (KetamaServer server : newServers) {
+            serverZones.put(server, zone);
+        }
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+    }
+
+    /**
+     * Remove a zone and all of its servers. Only the keys of the zone move, and they spread over the remaining zones.
+     *
+     * @param zone the name of the zone
+     *
+     * @throws java.lang.NullPointerException if zone is null
+     */
+    public synchronized void removeZone(String zone) {
+        Preconditions.checkNotNull(zone, "zone cannot be null");
+
+        KetamaRing ring = serverRings.get(zone);
+        if (ring == null) {
+            return;
+        }
+
+        // take the zone off the zone ring before dropping its servers, so a lookup that still finds the zone retries
+        // on the new zone ring
+        zoneRing.remove(zoneServer(zone));
+        Map<String, KetamaRing> rings = new HashMap<String, KetamaRing>(serverRings);
+        rings.remove(zone);
+        serverRings = ImmutableMap.copyOf(rings);
+
+        for (KetamaServer server : ring.getServers()) {
+            serverZones.remove(server);
+        }
+        modifiedDate = DateTime.now(DateTimeZone.UTC);
+    }
+
+    /**
+     * Set the weight of a zone, which scales the share of keys the zone gets. Only the points of that zone move on the
+     * zone ring. The weight is kept for a zone that does not exist yet, and applies once servers are added to it.
+     *
+     * @param zone   the name of the zone
+     * @param weight the weight of the zone; must be greater than 0
+     *
+     * @throws java.lang.IllegalArgumentException if zone is blank
+     * @throws java.lang.IllegalArgumentException if weight is not greater than 0
+     */
+    public synchronized void setZoneWeight(String zone, double weight) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(zone), "zone cannot be blank");
+        Preconditions.checkArgument(weight > 0 && !Double.isInfinite(weight), "weight must be greater than 0");
+
+        zoneWeights.put(zone, weight);
+        if (serverRings.containsKey(zone)) {
+            zoneRing.update(zoneServer(zone));
+            modifiedDate = DateTime.now(DateTimeZone.UTC);
+        }
+    }
+
+    /**
+     * Get the weight of a zone.
+     *
+     * @param zone the name of the zone
+     *
+     * @return the weight set for the zone, or 1 if none was set
+     *
+     * @throws java.lang.NullPointerException if zone is null
+     */
+    public synchronized double getZoneWeight(String zone) {
+        Preconditions.checkNotNull(zone, "zone cannot be null");
+
+        Double weight = zoneWeights.get(zone);
+        return weight == null ? KetamaServer.DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Get the server a key maps to: a server in the zone the key maps to.
+     *
+     * @param key the key to look up
+     *
+     * @return the server the key maps to
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the ring is empty
+     */
+    public KetamaServer get(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        while (true) {
+            KetamaRing ring = serverRings.get(getZone(key));
+            // a zone being removed is gone from the zone ring before its servers are dropped, so looking it up again
+            // finds another zone
+            if (ring != null) {
+                return ring.get(key);
+            }
+        }
+    }
+
+    /**
+     * Get the zone a key maps to.
+     *
+     * @param key the key to look up
+     *
+     * @return the name of the zone the key maps to
+     *
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if the ring is empty
+     */
+    public String getZone(String key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        return zoneRing.get(key + ZONE_KEY_SUFFIX).getName();
+    }
+
+    /**
+     * Get the server a key maps to within a given zone, whichever zone the key maps to itself. This is the server the
+     * key would map to if the zone were picked for it, so a client can keep to its local zone.
+     *
+     * @param zone the name of the zone
+     * @param key  the key to look up
+     *
+     * @return the server in the zone the key maps to
+     *
+     * @throws java.lang.NullPointerException if zone is null
+     * @throws java.lang.NullPointerException if key is null
+     * @throws java.util.NoSuchElementException if there is no such zone
+     */
+    public KetamaServer get(String zone, String key) {
+        Preconditions.checkNotNull(zone, "zone cannot be null");
+        Preconditions.checkNotNull(key, "key cannot be null");
+
+        KetamaRing ring = serverRings.get(zone);
+        if (ring == null) {
+            throw new NoSuchElementException("No such zone: " + zone);
+        }
+        return ring.get(key);
+    }
+
+    /**
+     * Get the names of the zones currently in the ring. The set cannot be modified.
+     *
+     * @return an unmodifiable set of zone names
+     */
+    public Set<String> getZones() {
+        return serverRings.keySet();
+    }
+
+    /**
+     * Get the servers currently in a zone. The set cannot be modified.
+     *
+     * @param zone the name of the zone
+     *
+     * @return an unmodifiable set of the servers in the zone, which is empty if there is no such zone
+     *
+     * @throws java.lang.NullPointerException if zone is null
+     */
+    public Set<KetamaServer> getServers(String zone) {
+        Preconditions.checkNotNull(zone, "zone cannot be null");
+
+        KetamaRing ring = serverRings.get(zone);
+        return ring == null ? Collections.<KetamaServer>emptySet() : ring.getServers();
+    }
+
+    /**
+     * Get the servers currently in every zone. The set cannot be modified.
+     *
+     * @return an unmodifiable set of all servers in the ring
+     */
+    public Set<KetamaServer> getServers() {
+        ImmutableSet.Builder<KetamaServer> servers = ImmutableSet.builder();
+        for (KetamaRing ring : serverRings.values()) {
+            servers.addAll(ring.getServers());
+        }
+        return servers.build();
+    }
+
+    /**
+     * Check whether a server is in any zone.
+     *
+     * @param server the server to look for
+     *
+     * @return true if the server is in a zone
+     *
+     * @throws java.lang.NullPointerException if server is null
+     */
+    public boolean contains(KetamaServer server) {
+        Preconditions.checkNotNull(server, "server cannot be null");
+
+        for (KetamaRing ring : serverRings.values()) {
+            if (ring.contains(server)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of servers in every zone.
+     *
+     * @return the number of servers in the ring
+     */
+    public int size() {
+        int size = 0;
+        for (KetamaRing ring : serverRings.values()) {
+            size += ring.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the datetime of the last modification of the ring -- addition or removal of servers or zones.
+     *
+     * @return the last datetime the ring was modified
+     */
+    public DateTime getModifiedDate() {
+        return modifiedDate;
+    }
+
+    /**
+     * Create the ring of a new zone, publish it, and only then place the zone, so any lookup finding the zone also
+     * finds its servers. Callers must hold the ring's lock.
+     */
+    private void addZone(String zone, Set<KetamaServer> servers) {
+        Map<String, KetamaRing> rings = new HashMap<String, KetamaRing>(serverRings);
+        rings.put(zone, new KetamaRing(serverHashStrategy, keyHashFunction, servers));
+        serverRings = ImmutableMap.copyOf(rings);
+
+        zoneRing.add(zoneServer(zone));
+    }
+
+    /**
+     * The server standing for a zone on the zone ring, carrying the weight of the zone.
+     */
+    private KetamaServer zoneServer(String zone) {
+        return new KetamaServer(zone, zone, 0, getZoneWeight(zone));
+    }
+
+    private void checkServers(String zone, Set<KetamaServer> servers) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(zone), "zone cannot be blank");
+        Preconditions.checkNotNull(servers, "servers cannot be null");
+
+        for (KetamaServer server : servers) {
+            Preconditions.checkNotNull(server, "server cannot be null");
+            String current = serverZones.get(server);
+            Preconditions.checkArgument(current == null || current.equals(zone),
+                    "server %s is already in zone %s", server, current);
+        }
+    }
+}
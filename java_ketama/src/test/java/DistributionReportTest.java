@@ -0,0 +1,38 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DistributionReportTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testMeasureNPE() {
+        DistributionReport.measure(null, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMeasureEmptyRing() {
+        DistributionReport.measure(new RendezvousRing(new FNV1A32HashFunction()), 10);
+    }
+
+    @Test
+    public void testMeasure() {
+        KetamaServer server0 = new KetamaServer("server0", "host0", 11211);
+        KetamaServer server1 = new KetamaServer("server1", "host1", 11211, 3);
+        JumpHashRing ring = new JumpHashRing(new FNV1A32HashFunction(), Arrays.asList(server0));
+
+        DistributionReport report = DistributionReport.measure(ring, 1000);
+        assertEquals(1000, report.getKeyCount());
+        assertEquals(1000, (int) report.getCounts().get(server0));
+        assertEquals(1.0, report.getPeakToMean(), 0);
+        assertEquals(0.0, report.getRelativeStandardDeviation(), 0);
+
+        // jump hashing ignores weights, so the heavier server is underloaded and the lighter one overloaded
+        ring.add(server1);
+        report = DistributionReport.measure(ring, 100000);
+        assertEquals(2.0, report.getPeakToMean(), 0.05);
+        assertEquals(0, (int) report.getCounts().get(server0) + report.getCounts().get(server1) - 100000);
+    }
+}
@@ -3,6 +3,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -46,4 +48,104 @@ public class FNV1A32HashFunctionTest {
         assertEquals(1703322857L, function.calculateHash("393f7f81-ecd1-4e01-ba24-0d81384a7eb8", 2739688623L));
         assertEquals(1880337671L, function.calculateHash("393f7f81-ecd1-4e01-ba24-0d81384a7eb8", 1703322857L));
     }
+
+    @Test
+    public void testCalculateHashEmpty() {
+        assertEquals(2166136261L, function.calculateHash(""));
+        assertEquals(-5L, function.calculateHash("", -5L));
+        assertEquals(2166136261L, function.calculateByteHash(new byte[0]));
+        assertEquals(2166136261L, function.calculateByteHash(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    public void testCalculateHashMatchesReference() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0 ; i < 1000 ; i++) {
+            String input = randomString(random);
+            long seed = i % 2 == 0 ? 2166136261L : random.nextLong();
+            byte[] bytes = input.getBytes("UTF-8");
+            long expected = referenceHash(bytes, seed);
+
+            assertEquals(input, expected, function.calculateHash(input, seed));
+            assertEquals(input, expected, function.calculateHash(new StringBuilder(input), seed));
+            assertEquals(input, expected, function.calculateByteHash(bytes, 0, bytes.length, seed));
+        }
+    }
+
+    @Test
+    public void testCalculateHashUnpairedSurrogates() throws Exception {
+        String[] inputs = { "\ud800", "a\udc00b", "\ud800\ud800\udc00", "\udbff", "\ud83d\ude00\ud83d" };
+        for (String input : inputs) {
+            assertEquals(referenceHash(input.getBytes("UTF-8"), 2166136261L), function.calculateHash(input));
+        }
+    }
+
+    @Test
+    public void testCalculateHashBytes() throws Exception {
+        byte[] bytes = "xx393f7f81-ecd1-4e01-ba24-0d81384a7eb8yy".getBytes("UTF-8");
+        long expected = new BigInteger("FC596F33", 16).longValue();
+
+        assertEquals(expected, function.calculateByteHash("393f7f81-ecd1-4e01-ba24-0d81384a7eb8".getBytes("UTF-8")));
+        assertEquals(expected, function.calculateByteHash(bytes, 2, bytes.length - 4, 2166136261L));
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+        buffer.limit(bytes.length - 2);
+        assertEquals(expected, function.calculateByteHash(buffer));
+        assertEquals(2, buffer.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(2);
+        direct.limit(bytes.length - 2);
+        assertEquals(expected, function.calculateByteHash(direct));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testCalculateHashBytesOutOfBounds() {
+        function.calculateByteHash(new byte[4], 2, 3, 2166136261L);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testCalculateHashBufferNPE() {
+        function.calculateByteHash((ByteBuffer) null);
+    }
+
+    /**
+     * The original BigInteger implementation, kept to verify the int arithmetic produces identical hashes.
+     */
+    private long referenceHash(byte[] bytes, long initialValue) {
+        BigInteger prime = new BigInteger("01000193", 16);
+        BigInteger mod = new BigInteger("2").pow(32);
+
+        BigInteger hash = BigInteger.valueOf(initialValue);
+        for (byte b : bytes) {
+            hash = hash.xor(BigInteger.valueOf((int) b & 0xff));
+            hash = hash.multiply(prime).mod(mod);
+        }
+
+        return hash.longValue();
+    }
+
+    private String randomString(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(40);
+        for (int i = 0 ; i < length ; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.append((char) random.nextInt(0x80));
+                    break;
+                case 1:
+                    builder.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                case 2:
+                    builder.append((char) random.nextInt(0x10000));
+                    break;
+                default:
+                    builder.appendCodePoint(0x10000 + random.nextInt(0x100000));
+            }
+        }
+
+        return builder.toString();
+    }
 }
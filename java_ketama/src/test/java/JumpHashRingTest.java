@@ -0,0 +1,141 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class JumpHashRingTest {
+
+    private HashFunction hashFunction;
+    private List<KetamaServer> servers;
+
+    @Before
+    public void setup() {
+        hashFunction = new FNV1A32HashFunction();
+        servers = new ArrayList<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructorNPE() {
+        new JumpHashRing(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorDuplicates() {
+        new JumpHashRing(hashFunction, Arrays.asList(servers.get(0), servers.get(0)));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() {
+        new JumpHashRing(hashFunction).get("key");
+    }
+
+    @Test
+    public void testGet() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers);
+        assertEquals(servers, ring.getBuckets());
+        assertEquals(10, ring.size());
+
+        int[] counts = new int[servers.size()];
+        for (int i = 0 ; i < 100000 ; i++) {
+            int bucket = ring.getBucket("key" + i);
+            assertEquals(servers.get(bucket), ring.get("key" + i));
+            counts[bucket]++;
+        }
+
+        for (int count : counts) {
+            assertEquals(10000, count, 1000);
+        }
+    }
+
+    @Test
+    public void testAddMovesKeysToNewBucketOnly() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers.subList(0, 9));
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 100000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        ring.add(servers.get(9));
+        assertEquals(servers, ring.getBuckets());
+
+        int moved = 0;
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            KetamaServer server = ring.get(entry.getKey());
+            if (!server.equals(entry.getValue())) {
+                assertEquals(servers.get(9), server);
+                moved++;
+            }
+        }
+        assertEquals(10000, moved, 1000);
+    }
+
+    @Test
+    public void testAddSetAppendsInNameOrder() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers.subList(0, 5));
+        ring.add(new HashSet<KetamaServer>(servers.subList(3, 10)));
+        assertEquals(servers, ring.getBuckets());
+    }
+
+    @Test
+    public void testRemoveLast() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers);
+        ring.remove(servers.get(9));
+        ring.remove(new HashSet<KetamaServer>(servers.subList(7, 9)));
+        ring.remove(new KetamaServer("missing", "missing", 11211));
+        assertEquals(servers.subList(0, 7), ring.getBuckets());
+        assertFalse(ring.contains(servers.get(8)));
+    }
+
+    @Test
+    public void testRemoveNotLast() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers);
+        try {
+            ring.remove(servers.get(3));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(servers, ring.getBuckets());
+        }
+    }
+
+    @Test
+    public void testSynchronizeRing() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers.subList(0, 8));
+        Set<KetamaServer> newServers = new HashSet<KetamaServer>(servers.subList(0, 6));
+        newServers.add(servers.get(9));
+        newServers.add(servers.get(8));
+        ring.synchronizeRing(newServers);
+
+        List<KetamaServer> expected = new ArrayList<KetamaServer>(servers.subList(0, 6));
+        expected.add(servers.get(8));
+        expected.add(servers.get(9));
+        assertEquals(expected, ring.getBuckets());
+        assertEquals(newServers, ring.getServers());
+    }
+
+    @Test
+    public void testSynchronizeRingNotLast() {
+        JumpHashRing ring = new JumpHashRing(hashFunction, servers);
+        try {
+            ring.synchronizeRing(new HashSet<KetamaServer>(servers.subList(1, 10)));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(servers, ring.getBuckets());
+        }
+    }
+
+    @Test
+    public void testHashRing() {
+        HashRing ring = new JumpHashRing(hashFunction);
+        assertNull(ring.getModifiedDate());
+        ring.add(servers.get(0));
+        assertNotNull(ring.getModifiedDate());
+        assertTrue(ring.contains(servers.get(0)));
+        assertEquals(servers.get(0), ring.get("key"));
+    }
+}
@@ -1,10 +1,15 @@
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Sets;
 import com.wayfair.common.hash.ketama.*;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -432,6 +437,770 @@ public class KetamaRingTest {
         }
     }
 
+    @Test
+    public void testMarkDown() {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 5 ; i++) {
+            servers.add(randomServer());
+        }
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        KetamaServer down = servers.iterator().next();
+
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        KetamaRing removed = new KetamaRing(strategy, hashFunction, servers);
+        removed.remove(down);
+
+        DateTime modifiedDate = ring.getModifiedDate();
+        assertTrue(ring.markDown(down));
+        assertFalse(ring.markDown(down));
+        assertTrue(ring.isDown(down));
+        assertEquals(Collections.singleton(down), ring.getDownServers());
+        assertTrue(ring.contains(down));
+        assertEquals(modifiedDate, ring.getModifiedDate());
+
+        // keys of a down server go where they would go if it had been removed
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            assertEquals(removed.get(entry.getKey()), ring.get(entry.getKey()));
+        }
+
+        assertTrue(ring.markUp(down));
+        assertFalse(ring.markUp(down));
+        assertFalse(ring.isDown(down));
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            assertEquals(entry.getValue(), ring.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testMarkDownSurvivesChanges() {
+        KetamaServer server = randomServer();
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        KetamaServer down = servers.iterator().next();
+        assertTrue(ring.markDown(down));
+
+        ring.add(server);
+        assertTrue(ring.isDown(down));
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(server, ring.get("key" + i));
+        }
+
+        ring.remove(down);
+        assertFalse(ring.isDown(down));
+        assertTrue(ring.getDownServers().isEmpty());
+        assertFalse(ring.markDown(down));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testAllServersDown() {
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        ring.markDown(servers.iterator().next());
+        ring.get("key");
+    }
+
+    @Test
+    public void testGetNSkipsDownServers() {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 3 ; i++) {
+            servers.add(randomServer());
+        }
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        KetamaServer down = servers.iterator().next();
+        ring.markDown(down);
+
+        KetamaServer[] replicas = new KetamaServer[3];
+        for (int i = 0 ; i < 100 ; i++) {
+            assertEquals(2, ring.getN("key" + i, replicas));
+            assertEquals(ring.get("key" + i), replicas[0]);
+            assertFalse(down.equals(replicas[0]) || down.equals(replicas[1]));
+        }
+    }
+
+    @Test
+    public void testGetNByDomain() {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 24 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211, 1, "zone" + i % 2, "rack" + i % 3));
+        }
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        KetamaServer[] replicas = new KetamaServer[3];
+
+        for (int i = 0 ; i < 1000 ; i++) {
+            String key = "key" + i;
+            assertEquals(3, ring.getN(key, replicas, FailureDomain.RACK));
+            assertEquals(ring.get(key), replicas[0]);
+            for (int a = 0 ; a < 3 ; a++) {
+                for (int b = a + 1 ; b < 3 ; b++) {
+                    assertFalse(FailureDomain.RACK.isSameDomain(replicas[a], replicas[b]));
+                }
+            }
+
+            // the replica in the other zone is the first server clockwise outside the zone of the first replica
+            assertEquals(2, ring.getN(key, replicas, FailureDomain.ZONE));
+            KetamaServer[] walk = new KetamaServer[24];
+            ring.getN(key, walk);
+            for (KetamaServer server : walk) {
+                if (!server.getZone().equals(replicas[0].getZone())) {
+                    assertEquals(server, replicas[1]);
+                    break;
+                }
+            }
+        }
+
+        // there are 2 zones of 3 racks each
+        assertEquals(6, ring.getN("key", new KetamaServer[10], FailureDomain.RACK));
+        assertEquals(2, ring.getN("key", new KetamaServer[10], FailureDomain.ZONE));
+    }
+
+    @Test
+    public void testGetNByDomainSkipsDownServers() {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 12 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211, 1, "zone" + i % 3, null));
+        }
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        // leave zone0 with a single live server
+        for (int i = 3 ; i < 12 ; i += 3) {
+            ring.markDown(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+
+        KetamaServer[] replicas = new KetamaServer[3];
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(3, ring.getN("key" + i, replicas, FailureDomain.ZONE));
+            assertEquals(ring.get("key" + i), replicas[0]);
+            for (KetamaServer replica : replicas) {
+                assertFalse(ring.isDown(replica));
+            }
+        }
+    }
+
+    @Test
+    public void testGetNByDomainUnlabeled() {
+        KetamaRing ring = ring(5);
+        KetamaServer[] replicas = new KetamaServer[3];
+        KetamaServer[] expected = new KetamaServer[3];
+
+        // servers without labels are each in a domain of their own
+        for (int i = 0 ; i < 100 ; i++) {
+            assertEquals(3, ring.getN("key" + i, replicas, FailureDomain.RACK));
+            ring.getN("key" + i, expected);
+            assertArrayEquals(expected, replicas);
+        }
+    }
+
+    @Test
+    public void testUpdateLabels() {
+        KetamaServer server = new KetamaServer("server", "host", 11211, 1, "east", "rack1");
+        KetamaRing ring = ring(5);
+        ring.add(server);
+        SortedArrayContinuum before = ring.getContinuum();
+        long version = ring.getVersion();
+
+        ring.update(new KetamaServer("server", "host", 11211, 1, "west", "rack1"));
+        assertTrue(ring.getVersion() > version);
+        assertTrue(before.diff(ring.getContinuum()).isEmpty());
+        for (int i = 0 ; i < ring.getContinuum().size() ; i++) {
+            if (ring.getContinuum().getServer(i).equals(server)) {
+                assertEquals("west", ring.getContinuum().getServer(i).getZone());
+            }
+        }
+
+        version = ring.getVersion();
+        ring.update(new KetamaServer("server", "host", 11211, 1, "west", "rack1"));
+        assertEquals(version, ring.getVersion());
+    }
+
+    @Test
+    public void testUpdateLabelsCollision() throws Exception {
+        // the second server takes over a point of the first, which relabeling the first must leave with it
+        ServerHashStrategy colliding = new ServerHashStrategy() {
+            @Override
+            public void addServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+                for (long point : server.getName().equals("first") ? new long[]{10, 20, 30} : new long[]{20, 40}) {
+                    continuum.put(point, server);
+                }
+            }
+
+            @Override
+            public void removeServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        KetamaServer second = new KetamaServer("second", "host2", 11211);
+        KetamaRing ring = new KetamaRing(colliding, hashFunction);
+        ring.add(new KetamaServer("first", "host1", 11211, 1, "east", null));
+        ring.add(second);
+        SortedArrayContinuum before = ring.getContinuum();
+
+        KetamaServer relabeled = new KetamaServer("first", "host1", 11211, 1, "west", null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StagedRing staged = ring.prepare(new HashSet<KetamaServer>(Arrays.asList(relabeled, second)), executor).get();
+            assertTrue(staged.getChanges().isEmpty());
+            assertEquals(second, staged.getContinuum().get(20));
+            assertEquals("west", staged.getContinuum().get(10).getZone());
+        } finally {
+            executor.shutdown();
+        }
+
+        ring.update(relabeled);
+        assertTrue(before.diff(ring.getContinuum()).isEmpty());
+        assertEquals(second, ring.getContinuum().get(20));
+        assertEquals("west", ring.getContinuum().get(10).getZone());
+        assertEquals("west", ring.getContinuum().get(30).getZone());
+    }
+
+    @Test
+    public void testGetN() {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 5 ; i++) {
+            servers.add(randomServer());
+        }
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, servers);
+        KetamaServer[] replicas = new KetamaServer[2];
+
+        for (int i = 0 ; i < 1000 ; i++) {
+            String key = "key" + i;
+            assertEquals(2, ring.getN(key, replicas));
+            assertEquals(ring.get(key), replicas[0]);
+            assertFalse(replicas[0].equals(replicas[1]));
+
+            // the second replica is where the key goes once the first one is removed
+            KetamaRing without = new KetamaRing(strategy, hashFunction, servers);
+            without.remove(replicas[0]);
+            assertEquals(replicas[1], without.get(key));
+        }
+
+        assertEquals(5, ring.getN("key", new KetamaServer[10]));
+        assertEquals(0, new KetamaRing(strategy, hashFunction).getN("key", replicas));
+    }
+
+    @Test
+    public void testPrepareCommit() throws Exception {
+        Set<KetamaServer> before = new LinkedHashSet<KetamaServer>();
+        for (int i = 0 ; i < 50 ; i++) {
+            before.add(new KetamaServer("server" + i, "host" + i, 11211, 1 + i % 3));
+        }
+        // remove 10 servers, reweight 5, relabel 1 and add 10
+        Set<KetamaServer> after = new LinkedHashSet<KetamaServer>();
+        for (KetamaServer server : before) {
+            int i = Integer.parseInt(server.getName().substring("server".length()));
+            if (i >= 10 && i < 15) {
+                after.add(new KetamaServer(server.getName(), server.getHostname(), 11211, 5));
+            } else if (i == 15) {
+                after.add(new KetamaServer(server.getName(), server.getHostname(), 11211, server.getWeight(), "east",
+                        null));
+            } else if (i >= 16) {
+                // an equal server, as a config watcher would build it, rather than the instance in the ring
+                after.add(new KetamaServer(server.getName(), server.getHostname(), 11211, server.getWeight()));
+            }
+        }
+        for (int i = 50 ; i < 60 ; i++) {
+            after.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, before);
+        KetamaRing expected = new KetamaRing(strategy, hashFunction, before);
+        expected.synchronizeRing(after);
+        SortedArrayContinuum original = ring.getContinuum();
+        long version = ring.getVersion();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StagedRing staged = ring.prepare(after, executor).get();
+
+            // nothing changes until the staged ring is committed
+            assertSame(original, ring.getContinuum());
+            assertEquals(version, ring.getVersion());
+            assertFalse(staged.isStale());
+
+            assertEquals(10, staged.getAdded().size());
+            assertEquals(6, staged.getUpdated().size());
+            assertEquals(10, staged.getRemoved().size());
+            assertEquals(original.diff(expected.getContinuum()), staged.getChanges());
+            KetamaRing preview = staged.getPreview();
+            for (int i = 0 ; i < 1000 ; i++) {
+                assertEquals(expected.get("key" + i), preview.get("key" + i));
+                assertSame(preview.get("key" + i), preview.getServer(preview.getIndex("key" + i)));
+            }
+            assertEquals(after, preview.getServers());
+            preview.writeSnapshot(new ByteArrayOutputStream());
+
+            assertTrue(staged.commit());
+            assertSameRing(expected, ring);
+            assertTrue(ring.getVersion() > version);
+
+            // committing a synchronization that changes nothing leaves the ring as it is
+            version = ring.getVersion();
+            StagedRing unchanged = ring.prepare(after, executor).get();
+            assertTrue(unchanged.isEmpty());
+            assertTrue(unchanged.getChanges().isEmpty());
+            assertTrue(unchanged.commit());
+            assertEquals(version, ring.getVersion());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrepareStale() throws Exception {
+        KetamaRing ring = ring(10);
+        Set<KetamaServer> after = new HashSet<KetamaServer>(ring.getServers());
+        after.add(randomServer());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // marking a server down does not change the servers or points
+            StagedRing staged = ring.prepare(after, executor).get();
+            ring.markDown(ring.getServers().iterator().next());
+            assertFalse(staged.isStale());
+            assertTrue(staged.commit());
+            assertEquals(after, ring.getServers());
+
+            after.add(randomServer());
+            staged = ring.prepare(after, executor).get();
+            KetamaServer added = randomServer();
+            ring.add(added);
+            SortedArrayContinuum continuum = ring.getContinuum();
+
+            assertTrue(staged.isStale());
+            assertFalse(staged.commit());
+            assertSame(continuum, ring.getContinuum());
+            assertTrue(ring.contains(added));
+
+            staged.discard();
+            staged.discard();
+            try {
+                staged.commit();
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(ring.contains(added));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCommitTwice() throws Exception {
+        KetamaRing ring = ring(10);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StagedRing staged = ring.prepare(Collections.singleton(randomServer()), executor).get();
+            assertTrue(staged.commit());
+            assertEquals(1, ring.size());
+            staged.commit();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testPrepareNPE() {
+        ring(1).prepare(null, Executors.newSingleThreadExecutor());
+    }
+
+    @Test
+    public void testParallelConstruction() {
+        Set<KetamaServer> servers = new LinkedHashSet<KetamaServer>();
+        for (int i = 0 ; i < 300 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211, 1 + i % 3));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ServerHashStrategy[] strategies = {new FNV1AServerHashStrategy(), new MD5ServerHashStrategy(),
+                    new IncrementNameServerHashStrategy(new NativeHashFunction())};
+            for (ServerHashStrategy strategy : strategies) {
+                assertSameRing(new KetamaRing(strategy, hashFunction, servers),
+                        new KetamaRing(strategy, hashFunction, servers, executor));
+            }
+
+            KetamaRing empty = new KetamaRing(strategy, hashFunction, new HashSet<KetamaServer>(), executor);
+            assertEquals(0, empty.size());
+            assertNull(empty.getModifiedDate());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelConstructionCollisions() {
+        // every server claims the same few points, so each point goes to the last server in iteration order
+        ServerHashStrategy colliding = new ServerHashStrategy() {
+            @Override
+            public void addServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+                int offset = Integer.parseInt(server.getName().substring(6));
+                for (long point = 0 ; point < 3 ; point++) {
+                    continuum.put(point * 10 + offset % 4, server);
+                }
+            }
+
+            @Override
+            public void removeServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        Set<KetamaServer> servers = new LinkedHashSet<KetamaServer>();
+        for (int i = 0 ; i < 50 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            KetamaRing parallel = new KetamaRing(colliding, hashFunction, servers, executor);
+            assertSameRing(new KetamaRing(colliding, hashFunction, servers), parallel);
+            assertEquals("server49", parallel.getContinuum().getServer(1).getName());
+            assertEquals(50, parallel.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMatchesSequentialPlacement() {
+        // a strategy whose servers collide often, so the order points are put and removed in matters
+        ServerHashStrategy colliding = new ServerHashStrategy() {
+            @Override
+            public void addServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+                for (long point : points(server, pointsPerServer)) {
+                    continuum.put(point, server);
+                }
+            }
+
+            @Override
+            public void removeServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+                for (long point : points(server, pointsPerServer)) {
+                    continuum.remove(point);
+                }
+            }
+
+            private long[] points(KetamaServer server, int pointsPerServer) {
+                Random random = new Random(server.getName().hashCode());
+                long[] points = new long[server.getPoints(pointsPerServer)];
+                for (int i = 0 ; i < points.length ; i++) {
+                    points[i] = random.nextInt(2000);
+                }
+                return points;
+            }
+        };
+
+        for (ServerHashStrategy strategy : new ServerHashStrategy[] {new MD5ServerHashStrategy(), colliding}) {
+            Random random = new Random(7);
+            List<KetamaServer> pool = new ArrayList<KetamaServer>();
+            for (int i = 0 ; i < 40 ; i++) {
+                pool.add(new KetamaServer("server" + i, "host" + i, 11211));
+            }
+
+            KetamaRing ring = new KetamaRing(strategy, hashFunction);
+            TreeMap<Long, KetamaServer> expected = new TreeMap<Long, KetamaServer>();
+            Map<KetamaServer, KetamaServer> members = new HashMap<KetamaServer, KetamaServer>();
+
+            for (int round = 0 ; round < 30 ; round++) {
+                // swap some servers and reweight others in one synchronizeRing, applying the same steps sequentially
+                Set<KetamaServer> target = new LinkedHashSet<KetamaServer>();
+                for (KetamaServer server : pool) {
+                    if (random.nextInt(4) != 0) {
+                        double weight = random.nextInt(5) == 0 ? 1 + random.nextInt(3) : 1;
+                        target.add(new KetamaServer(server.getName(), server.getHostname(), server.getPort(), weight));
+                    }
+                }
+
+                Set<KetamaServer> current = new HashSet<KetamaServer>(members.keySet());
+                for (KetamaServer server : Sets.difference(target, current)) {
+                    strategy.addServer(server, expected, 160);
+                    members.put(server, server);
+                }
+                for (KetamaServer server : Sets.intersection(target, current)) {
+                    KetamaServer old = members.get(server);
+                    if (old.getWeight() != server.getWeight()) {
+                        strategy.removeServer(old, expected, 160);
+                        strategy.addServer(server, expected, 160);
+                        members.remove(server);
+                        members.put(server, server);
+                    }
+                }
+                for (KetamaServer server : Sets.difference(current, target)) {
+                    strategy.removeServer(members.remove(server), expected, 160);
+                }
+                ring.synchronizeRing(target);
+                assertContinuum(expected, ring.getContinuum());
+
+                KetamaServer removed = pool.get(random.nextInt(pool.size()));
+                if (members.containsKey(removed)) {
+                    strategy.removeServer(members.remove(removed), expected, 160);
+                    ring.remove(removed);
+                    assertContinuum(expected, ring.getContinuum());
+                }
+            }
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testParallelConstructionNPE() {
+        new KetamaRing(strategy, hashFunction, servers, null);
+    }
+
+    @Test
+    public void testOffHeap() {
+        KetamaRing ring = ring(10);
+        KetamaRing offHeap = new KetamaRing(strategy, hashFunction, ring.getServers());
+        offHeap.setOffHeap(true);
+        assertTrue(offHeap.isOffHeap());
+        assertTrue(offHeap.getContinuum().isOffHeap());
+        assertMatches(ring, offHeap);
+
+        // every continuum published afterwards stays off the heap
+        KetamaServer extra = randomServer();
+        ring.add(extra);
+        offHeap.add(extra);
+        assertTrue(offHeap.getContinuum().isOffHeap());
+        assertMatches(ring, offHeap);
+
+        KetamaServer down = ring.get("key0");
+        ring.markDown(down);
+        offHeap.markDown(down);
+        assertMatches(ring, offHeap);
+
+        offHeap.setOffHeap(false);
+        assertFalse(offHeap.isOffHeap());
+        assertFalse(offHeap.getContinuum().isOffHeap());
+        assertMatches(ring, offHeap);
+    }
+
+    @Test
+    public void testIds() {
+        KetamaRing ring = ring(5);
+        assertEquals(5, ring.getIdLimit());
+
+        boolean[] used = new boolean[5];
+        for (KetamaServer server : ring.getServers()) {
+            int id = ring.getId(server);
+            assertFalse(used[id]);
+            used[id] = true;
+            assertSame(server, ring.getServer(id));
+        }
+        assertEquals(-1, ring.getId(randomServer()));
+        assertNull(ring.getServer(5));
+        assertNull(ring.getServer(-1));
+
+        // ids are kept while the server is in the ring, and the lowest freed id is reused
+        KetamaServer removed = ring.getServer(1);
+        KetamaServer kept = ring.getServer(3);
+        ring.remove(removed);
+        assertNull(ring.getServer(1));
+        assertEquals(5, ring.getIdLimit());
+        assertEquals(3, ring.getId(kept));
+
+        KetamaServer added = randomServer();
+        ring.add(added);
+        assertEquals(1, ring.getId(added));
+        assertEquals(3, ring.getId(kept));
+
+        ring.update(new KetamaServer(kept.getName(), kept.getHostname(), kept.getPort(), 2));
+        assertEquals(3, ring.getId(kept));
+        assertEquals(2, ring.getServer(3).getWeight(), 0);
+    }
+
+    @Test
+    public void testGetIndex() {
+        KetamaRing ring = ring(5);
+        for (int i = 0 ; i < 1000 ; i++) {
+            String key = "key" + i;
+            assertSame(ring.get(key), ring.getServer(ring.getIndex(key)));
+        }
+
+        KetamaServer down = ring.get("key0");
+        ring.markDown(down);
+        assertFalse(ring.getIndex("key0") == ring.getId(down));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetIndexEmpty() {
+        new KetamaRing(strategy, hashFunction).getIndex("key");
+    }
+
+    @Test
+    public void testGetAllArray() {
+        KetamaRing ring = ring(5);
+        String[] keys = new String[100];
+        for (int i = 0 ; i < keys.length ; i++) {
+            keys[i] = "aab" + i;
+        }
+
+        KetamaServer[] servers = new KetamaServer[keys.length];
+        ring.getAll(keys, servers);
+        for (int i = 0 ; i < keys.length ; i++) {
+            assertEquals(ring.get(keys[i]), servers[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetAllArrayTooShort() {
+        ring(1).getAll(new String[] { "a", "b" }, new KetamaServer[1]);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetAllArrayNPE() {
+        ring(1).getAll(new String[] { "a", null }, new KetamaServer[2]);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetAllArrayNoSuchElement() {
+        ring(0).getAll(new String[] { "a" }, new KetamaServer[1]);
+    }
+
+    @Test
+    public void testGetAllCollection() {
+        KetamaRing ring = ring(5);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0 ; i < 100 ; i++) {
+            keys.add("aab" + i);
+        }
+
+        ListMultimap<KetamaServer, String> grouped = ring.getAll(keys);
+        assertEquals(keys.size(), grouped.size());
+        for (KetamaServer server : grouped.keySet()) {
+            List<String> serverKeys = grouped.get(server);
+            for (String key : serverKeys) {
+                assertEquals(server, ring.get(key));
+            }
+
+            // keys keep their original relative order
+            for (int i = 1 ; i < serverKeys.size() ; i++) {
+                assertTrue(keys.indexOf(serverKeys.get(i - 1)) < keys.indexOf(serverKeys.get(i)));
+            }
+        }
+
+        assertTrue(ring(0).getAll(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testWeightedDistribution() {
+        KetamaServer light = new KetamaServer("light", "light", 1234, 1);
+        KetamaServer heavy = new KetamaServer("heavy", "heavy", 1234, 4);
+        KetamaRing ring = new KetamaRing(strategy, hashFunction, new HashSet<KetamaServer>(Arrays.asList(light, heavy)));
+
+        int heavyCount = 0;
+        for (int i = 0 ; i < 10000 ; i++) {
+            if (heavy.equals(ring.get("key" + i))) {
+                heavyCount++;
+            }
+        }
+
+        // the heavy server should get roughly 80% of the keys
+        assertTrue("heavy server got " + heavyCount + " keys", heavyCount > 7000 && heavyCount < 9000);
+    }
+
+    @Test
+    public void testUpdate() throws InterruptedException {
+        KetamaRing ring = ring(4);
+        KetamaServer server = ring.getServers().iterator().next();
+        KetamaServer heavier = new KetamaServer(server.getName(), server.getHostname(), server.getPort(), 3);
+
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 1000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        DateTime modifiedDate = ring.getModifiedDate();
+        Thread.sleep(1);
+        ring.update(heavier);
+        assertTrue(ring.getModifiedDate().getMillis() > modifiedDate.getMillis());
+        assertEquals(4, ring.size());
+
+        // keys only ever move to the reweighted server, never between the others
+        int moved = 0;
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            KetamaServer after = ring.get(entry.getKey());
+            if (!after.equals(entry.getValue())) {
+                assertEquals(heavier, after);
+                moved++;
+            }
+            assertEquals(after.equals(server) ? 3 : 1, after.getWeight(), 0);
+        }
+        assertTrue(moved > 0);
+
+        // moving back to the original weight restores the original placement
+        ring.update(server);
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            assertEquals(entry.getValue(), ring.get(entry.getKey()));
+        }
+
+        // updating a server not in the ring does nothing
+        modifiedDate = ring.getModifiedDate();
+        ring.update(randomServer());
+        assertEquals(modifiedDate, ring.getModifiedDate());
+        assertEquals(4, ring.size());
+    }
+
+    @Test
+    public void testSynchronizeReweight() {
+        KetamaRing ring = ring(3);
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (KetamaServer server : ring.getServers()) {
+            servers.add(new KetamaServer(server.getName(), server.getHostname(), server.getPort(), 2));
+        }
+
+        ring.synchronizeRing(servers);
+        assertEquals(3, ring.size());
+        for (KetamaServer server : ring.getServers()) {
+            assertEquals(2, server.getWeight(), 0);
+        }
+    }
+
+    @Test
+    public void testGetDuringSynchronize() throws InterruptedException {
+        final KetamaRing ring = ring(0);
+        final Set<KetamaServer> servers0 = new HashSet<KetamaServer>();
+        final Set<KetamaServer> servers1 = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers0.add(randomServer());
+            servers1.add(randomServer());
+        }
+        ring.synchronizeRing(servers0);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0 ; i < 4 ; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            KetamaServer server = ring.get(UUID.randomUUID().toString());
+                            if (!servers0.contains(server) && !servers1.contains(server)) {
+                                throw new AssertionError("Unknown server " + server);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int i = 0 ; i < 20 ; i++) {
+            ring.synchronizeRing(i % 2 == 0 ? servers1 : servers0);
+        }
+
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(servers0, ring.getServers());
+    }
+
     /**
      * Returns true if the ring contains the server and the server can be found. Throws an exception if one is true
      * and the other false. Returns false otherwise.
@@ -458,6 +1227,42 @@ public class KetamaRingTest {
         }
     }
 
+    private static void assertMatches(KetamaRing expected, KetamaRing actual) {
+        KetamaServer[] expectedReplicas = new KetamaServer[3];
+        KetamaServer[] actualReplicas = new KetamaServer[3];
+        for (int i = 0 ; i < 1000 ; i++) {
+            String key = "key" + i;
+            assertEquals(expected.get(key), actual.get(key));
+            assertEquals(expected.getN(key, expectedReplicas), actual.getN(key, actualReplicas));
+            assertArrayEquals(expectedReplicas, actualReplicas);
+        }
+    }
+
+    private static void assertContinuum(SortedMap<Long, KetamaServer> expected, SortedArrayContinuum actual) {
+        assertEquals(expected.size(), actual.size());
+        int i = 0;
+        for (Map.Entry<Long, KetamaServer> entry : expected.entrySet()) {
+            assertEquals(entry.getKey().longValue(), actual.getPoint(i));
+            assertSame(entry.getValue(), actual.getServer(i));
+            i++;
+        }
+    }
+
+    private static void assertSameRing(KetamaRing expected, KetamaRing actual) {
+        SortedArrayContinuum expectedContinuum = expected.getContinuum();
+        SortedArrayContinuum actualContinuum = actual.getContinuum();
+        assertEquals(expectedContinuum.size(), actualContinuum.size());
+        for (int i = 0 ; i < expectedContinuum.size() ; i++) {
+            assertEquals(expectedContinuum.getPoint(i), actualContinuum.getPoint(i));
+            assertSame(expectedContinuum.getServer(i), actualContinuum.getServer(i));
+        }
+
+        assertEquals(expected.getServers(), actual.getServers());
+        for (KetamaServer server : expected.getServers()) {
+            assertEquals(expected.getId(server), actual.getId(server));
+        }
+    }
+
     private KetamaServer randomServer() {
         return new KetamaServer(UUID.randomUUID().toString(), UUID.randomUUID().toString(), 1234);
     }
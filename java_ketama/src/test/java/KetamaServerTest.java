@@ -48,4 +48,51 @@ public class KetamaServerTest {
         assertFalse(map.containsKey(server4));
     }
 
+    @Test
+    public void testWeight() {
+        assertEquals(1.0, new KetamaServer("a", "test", 123).getWeight(), 0);
+        assertEquals(2.5, new KetamaServer("a", "test", 123, 2.5).getWeight(), 0);
+
+        // the weight is not part of the identity of a server
+        assertEquals(new KetamaServer("a", "test", 123), new KetamaServer("a", "test", 123, 2.5));
+        assertEquals(new KetamaServer("a", "test", 123).hashCode(), new KetamaServer("a", "test", 123, 2.5).hashCode());
+    }
+
+    @Test
+    public void testLabels() {
+        KetamaServer server = new KetamaServer("a", "test", 123, 2, "east", "rack1");
+        assertEquals("east", server.getZone());
+        assertEquals("rack1", server.getRack());
+        assertNull(new KetamaServer("a", "test", 123).getZone());
+        assertNull(new KetamaServer("a", "test", 123).getRack());
+
+        // labels are not part of the identity of a server
+        assertEquals(new KetamaServer("a", "test", 123), server);
+        assertFalse(server.hasSameLabels(new KetamaServer("a", "test", 123, 2, "east", "rack2")));
+        assertTrue(server.hasSameLabels(new KetamaServer("b", "test", 123, 1, "east", "rack1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorBlankZone() {
+        new KetamaServer("a", "test", 123, 1, " ", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorZeroWeight() {
+        new KetamaServer("a", "test", 123, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorNaNWeight() {
+        new KetamaServer("a", "test", 123, Double.NaN);
+    }
+
+    @Test
+    public void testGetPoints() {
+        assertEquals(160, new KetamaServer("a", "test", 123).getPoints(160));
+        assertEquals(40, new KetamaServer("a", "test", 123, 0.25).getPoints(160));
+        assertEquals(640, new KetamaServer("a", "test", 123, 4).getPoints(160));
+        assertEquals(1, new KetamaServer("a", "test", 123, 0.0001).getPoints(160));
+    }
+
 }
@@ -0,0 +1,174 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LookupCacheTest {
+
+    private Set<KetamaServer> servers;
+    private KetamaRing ring;
+    private KetamaRing uncached;
+
+    @Before
+    public void setup() {
+        servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 5 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+        ring = new KetamaRing(new FNV1AServerHashStrategy(), new FNV1A32HashFunction(), servers);
+        uncached = new KetamaRing(new FNV1AServerHashStrategy(), new FNV1A32HashFunction(), servers);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorCapacity() {
+        new LookupCache(0);
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(2, new LookupCache(1).getCapacity());
+        assertEquals(1024, new LookupCache(1000).getCapacity());
+        assertEquals(1024, new LookupCache(1024).getCapacity());
+        assertEquals(LookupCache.DEFAULT_CAPACITY, new LookupCache().getCapacity());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        LookupCache cache = new LookupCache(1024);
+        ring.setLookupCache(cache);
+        assertSame(cache, ring.getLookupCache());
+
+        for (int i = 0 ; i < 3 ; i++) {
+            for (int j = 0 ; j < 100 ; j++) {
+                assertEquals(uncached.get("key" + j), ring.get("key" + j));
+            }
+        }
+
+        // every key fits, so only the first pass misses
+        assertEquals(100, cache.getMisses());
+        assertEquals(200, cache.getHits());
+        assertEquals(2 / 3.0, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testBounded() {
+        LookupCache cache = new LookupCache(16);
+        ring.setLookupCache(cache);
+
+        for (int i = 0 ; i < 2 ; i++) {
+            for (int j = 0 ; j < 1000 ; j++) {
+                assertEquals(uncached.get("key" + j), ring.get("key" + j));
+            }
+        }
+
+        // 16 entries cannot hold 1000 keys cycled in order
+        assertTrue(cache.getHits() < 32);
+        assertEquals(2000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void testVersion() {
+        long version = ring.getVersion();
+        KetamaServer extra = new KetamaServer("server5", "host5", 11211);
+
+        ring.add(extra);
+        assertTrue(ring.getVersion() > version);
+
+        version = ring.getVersion();
+        ring.add(extra);
+        assertEquals(version, ring.getVersion());
+
+        ring.markDown(extra);
+        assertTrue(ring.getVersion() > version);
+
+        version = ring.getVersion();
+        ring.synchronizeRing(servers);
+        assertTrue(ring.getVersion() > version);
+    }
+
+    @Test
+    public void testInvalidatedByChanges() {
+        LookupCache cache = new LookupCache(1024);
+        ring.setLookupCache(cache);
+
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 1000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        KetamaServer extra = new KetamaServer("server5", "host5", 11211);
+        ring.add(extra);
+        uncached.add(extra);
+        assertMatches();
+
+        KetamaServer down = ring.get("key0");
+        ring.markDown(down);
+        uncached.markDown(down);
+        assertMatches();
+
+        ring.markUp(down);
+        uncached.markUp(down);
+        ring.remove(extra);
+        uncached.remove(extra);
+        assertMatches();
+
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(before.get("key" + i), ring.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        ring.setLookupCache(new LookupCache(1024));
+        RequestStatistics statistics = new RequestStatistics(16, 1024, 4, 1);
+        ring.setStatistics(statistics);
+
+        for (int i = 0 ; i < 10 ; i++) {
+            ring.get("hot");
+        }
+
+        // cached lookups are counted like any other
+        RequestStatistics.Snapshot snapshot = statistics.getSnapshot();
+        assertEquals(10, snapshot.getTotal());
+        assertEquals(Long.valueOf(10), snapshot.getServerCounts().get(uncached.get("hot")));
+        assertEquals("hot", snapshot.getHotKeys().get(0).getKey());
+    }
+
+    @Test
+    public void testDisabled() {
+        LookupCache cache = new LookupCache(16);
+        ring.setLookupCache(cache);
+        ring.get("key");
+        ring.setLookupCache(null);
+        ring.get("key");
+
+        assertNull(ring.getLookupCache());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShared() {
+        LookupCache cache = new LookupCache(16);
+        ring.setLookupCache(cache);
+        uncached.setLookupCache(cache);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testAllDown() {
+        ring.setLookupCache(new LookupCache(16));
+        for (KetamaServer server : servers) {
+            ring.markDown(server);
+        }
+        ring.get("key");
+    }
+
+    private void assertMatches() {
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(uncached.get("key" + i), ring.get("key" + i));
+        }
+    }
+}
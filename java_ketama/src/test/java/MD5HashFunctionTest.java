@@ -0,0 +1,43 @@
+import com.wayfair.common.hash.ketama.MD5HashFunction;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MD5HashFunctionTest {
+
+    private MD5HashFunction function;
+
+    @Before
+    public void setup() {
+        function = new MD5HashFunction();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testCalculateHashNPE() {
+        function.calculateHash(null);
+    }
+
+    /**
+     * Expected values are the first point of the MD5 digest as computed by libketama's ketama_hashi.
+     */
+    @Test
+    public void testCalculateHash() {
+        assertEquals(3446378249L, function.calculateHash("test"));
+        assertEquals(1185822339L, function.calculateHash("aab0"));
+        assertEquals(3101332236L, function.calculateHash("393f7f81-ecd1-4e01-ba24-0d81384a7eb8"));
+        assertEquals(3437785128L, function.calculateHash("\u00e9\u4e2d\ud83d\ude00"));
+    }
+
+    @Test
+    public void testCalculateHashLongInput() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0 ; i < 1000 ; i++) {
+            builder.append("\u00e9\u4e2d");
+        }
+
+        // reusing the grown buffer must not change later, shorter hashes
+        function.calculateHash(builder.toString());
+        assertEquals(3446378249L, function.calculateHash("test"));
+    }
+}
@@ -0,0 +1,46 @@
+import com.wayfair.common.hash.ketama.KetamaServer;
+import com.wayfair.common.hash.ketama.MD5ServerHashStrategy;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class MD5ServerHashStrategyTest extends ServerHashStrategyTest<MD5ServerHashStrategy> {
+
+    /**
+     * The points libketama places for the first three digests of server 10.0.1.1:11211.
+     */
+    private static final List<Long> LIBKETAMA_POINTS = Arrays.asList(
+            2431485715L, 4123933443L, 100894374L, 2720740989L,
+            2888787643L, 3621965067L, 1066601667L, 3438933308L,
+            2217271743L, 44145334L, 3604652217L, 206710714L);
+
+    @Override
+    public MD5ServerHashStrategy getStrategy() {
+        return new MD5ServerHashStrategy();
+    }
+
+    @Test
+    public void testLibketamaPoints() {
+        assertPoints(12);
+    }
+
+    @Test
+    public void testPartialDigest() {
+        assertPoints(6);
+    }
+
+    private void assertPoints(int pointsPerServer) {
+        TreeMap<Long, KetamaServer> continuum = new TreeMap<Long, KetamaServer>();
+        KetamaServer server = new KetamaServer("10.0.1.1:11211", "10.0.1.1", 11211);
+        getStrategy().addServer(server, continuum, pointsPerServer);
+
+        assertEquals(pointsPerServer, continuum.size());
+        for (Long point : LIBKETAMA_POINTS.subList(0, pointsPerServer)) {
+            assertEquals(server, continuum.get(point));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MaglevRingTest {
+
+    private HashFunction hashFunction;
+    private Set<KetamaServer> servers;
+
+    @Before
+    public void setup() {
+        hashFunction = new FNV1A32HashFunction();
+        servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructorNPE() {
+        new MaglevRing(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorNotPrime() {
+        new MaglevRing(hashFunction, servers, 65536);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorTooManyServers() {
+        new MaglevRing(hashFunction, servers, 7);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() {
+        new MaglevRing(hashFunction).get("key");
+    }
+
+    @Test
+    public void testBalance() {
+        MaglevRing ring = new MaglevRing(hashFunction, servers);
+        assertEquals(MaglevRing.DEFAULT_TABLE_SIZE, ring.getChangedSlots());
+
+        Map<KetamaServer, Integer> counts = ring.getSlotCounts();
+        assertEquals(servers, counts.keySet());
+        for (int count : counts.values()) {
+            // every server claims one slot per round, so the counts differ by at most one
+            assertEquals(MaglevRing.DEFAULT_TABLE_SIZE / 10.0, count, 1);
+        }
+    }
+
+    @Test
+    public void testWeights() {
+        KetamaServer heavy = new KetamaServer("heavy", "heavy", 11211, 2);
+        servers.add(heavy);
+        Map<KetamaServer, Integer> counts = new MaglevRing(hashFunction, servers).getSlotCounts();
+
+        int light = counts.get(new KetamaServer("server0", "host0", 11211));
+        assertEquals(2.0, counts.get(heavy) / (double) light, 0.01);
+    }
+
+    @Test
+    public void testSameTableInAnyOrder() {
+        MaglevRing ring = new MaglevRing(hashFunction, servers);
+        MaglevRing other = new MaglevRing(hashFunction);
+        for (KetamaServer server : new ArrayList<KetamaServer>(servers)) {
+            other.add(server);
+        }
+
+        for (int i = 0 ; i < 10000 ; i++) {
+            assertEquals(ring.get("key" + i), other.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testAddRemoveDisruption() {
+        MaglevRing ring = new MaglevRing(hashFunction, servers);
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        KetamaServer added = new KetamaServer("server10", "host10", 11211);
+        ring.add(added);
+        assertTrue(ring.contains(added));
+        assertEquals(11, ring.size());
+
+        // the ideal is tableSize / 11; Maglev moves a few more slots than that
+        int ideal = MaglevRing.DEFAULT_TABLE_SIZE / 11;
+        assertTrue(ring.getChangedSlots() >= ideal);
+        assertTrue(ring.getChangedSlots() < ideal * 1.5);
+
+        ring.remove(added);
+        assertFalse(ring.contains(added));
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            assertEquals(entry.getValue(), ring.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testSynchronizeRing() {
+        MaglevRing ring = new MaglevRing(hashFunction, servers);
+        ring.synchronizeRing(servers);
+        assertEquals(MaglevRing.DEFAULT_TABLE_SIZE, ring.getChangedSlots());
+
+        Set<KetamaServer> newServers = new HashSet<KetamaServer>(servers);
+        newServers.remove(new KetamaServer("server3", "host3", 11211));
+        newServers.add(new KetamaServer("server11", "host11", 11211));
+        ring.synchronizeRing(newServers);
+        assertEquals(newServers, ring.getServers());
+        assertEquals(newServers, ring.getSlotCounts().keySet());
+
+        ring.synchronizeRing(new HashSet<KetamaServer>());
+        assertEquals(0, ring.size());
+        assertEquals(MaglevRing.DEFAULT_TABLE_SIZE, ring.getChangedSlots());
+    }
+}
@@ -0,0 +1,229 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class MappedContinuumTest {
+
+    private File file;
+    private MappedContinuumWriter writer;
+    private HashFunction hashFunction;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("ketama", ".continuum");
+        writer = new MappedContinuumWriter(file);
+        hashFunction = new FNV1A32HashFunction();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        writer.close();
+        file.delete();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testWriterNPE() throws IOException {
+        new MappedContinuumWriter(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testReaderNPE() throws IOException {
+        new MappedContinuumReader(file, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReaderNotAContinuum() throws IOException {
+        File other = File.createTempFile("ketama", ".other");
+        try {
+            new MappedContinuumReader(other, hashFunction);
+        } finally {
+            other.delete();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetNothingPublished() throws IOException {
+        new MappedContinuumReader(file, hashFunction).get("test");
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() throws IOException {
+        writer.publish(ring(0));
+        new MappedContinuumReader(file, hashFunction).get("test");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetOtherHashFunction() throws IOException {
+        writer.publish(ring(2));
+        new MappedContinuumReader(file, new NativeHashFunction()).get("test");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetClosed() throws IOException {
+        writer.publish(ring(2));
+        MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        reader.close();
+        reader.get("test");
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        KetamaRing ring = ring(5);
+        long sequence = writer.publish(ring);
+
+        MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        assertEquals(sequence, reader.getSequence());
+        assertRoutesLike(ring, reader);
+    }
+
+    @Test
+    public void testRepublish() throws IOException {
+        KetamaRing ring = ring(2);
+        writer.publish(ring);
+        MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        assertRoutesLike(ring, reader);
+
+        // grow the ring well beyond the current size of the file, so the reader has to remap it
+        long sequence = reader.getSequence();
+        ring.add(ring(50).getServers());
+        writer.publish(ring);
+        assertTrue(reader.getSequence() > sequence);
+        assertRoutesLike(ring, reader);
+
+        ring.synchronizeRing(ring(3).getServers());
+        writer.publish(ring);
+        assertRoutesLike(ring, reader);
+    }
+
+    @Test
+    public void testReopenWriter() throws IOException {
+        writer.publish(ring(2));
+        MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        long sequence = reader.getSequence();
+        writer.close();
+
+        // a new writer carries on the sequence of the file
+        KetamaRing ring = ring(3);
+        writer = new MappedContinuumWriter(file);
+        writer.publish(ring);
+        assertTrue(reader.getSequence() > sequence);
+        assertRoutesLike(ring, reader);
+    }
+
+    @Test
+    public void testReopenWriterAfterFailedPublish() throws IOException {
+        writer.publish(ring(2));
+        MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        writer.close();
+
+        // leave the sequence odd, as a writer dying in the middle of a publish does
+        long sequence = setSequence(reader.getSequence() + 1);
+
+        writer = new MappedContinuumWriter(file);
+        assertEquals(sequence + 1, reader.getSequence());
+        try {
+            reader.get("key");
+            fail();
+        } catch (NoSuchElementException e) {
+            // the half-written continuum was dropped
+        }
+
+        KetamaRing ring = ring(3);
+        long published = writer.publish(ring);
+        assertEquals(0, published & 1);
+        assertTrue(published > sequence);
+        assertEquals(published, reader.getSequence());
+        assertRoutesLike(ring, reader);
+
+        ring.add(ring(2).getServers());
+        writer.publish(ring);
+        assertRoutesLike(ring, reader);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetStuckPublish() throws IOException {
+        writer.publish(ring(2));
+        MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        setSequence(reader.getSequence() + 1);
+
+        // the writer never finishes, so the reader gives up rather than spinning forever
+        reader.get("key");
+    }
+
+    @Test
+    public void testGetDuringPublish() throws Exception {
+        final KetamaRing ring0 = ring(10);
+        final KetamaRing ring1 = ring(10);
+        writer.publish(ring0);
+
+        final MappedContinuumReader reader = new MappedContinuumReader(file, hashFunction);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running.get()) {
+                        String key = UUID.randomUUID().toString();
+                        KetamaServer server = reader.get(key);
+                        if (!server.equals(ring0.get(key)) && !server.equals(ring1.get(key))) {
+                            throw new AssertionError("Torn read for " + key);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        });
+        thread.start();
+
+        for (int i = 0 ; i < 200 ; i++) {
+            writer.publish(i % 2 == 0 ? ring1 : ring0);
+        }
+
+        running.set(false);
+        thread.join();
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    /**
+     * Overwrite the sequence in the header of the file, behind the writer's back.
+     */
+    private long setSequence(long sequence) throws IOException {
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(8);
+            raw.writeLong(sequence);
+        } finally {
+            raw.close();
+        }
+        return sequence;
+    }
+
+    private void assertRoutesLike(KetamaRing ring, MappedContinuumReader reader) {
+        for (int i = 0 ; i < 1000 ; i++) {
+            KetamaServer expected = ring.get("key" + i);
+            KetamaServer actual = reader.get("key" + i);
+            assertEquals(expected, actual);
+            assertEquals(expected.getWeight(), actual.getWeight(), 0);
+        }
+    }
+
+    private KetamaRing ring(int serverCount) {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < serverCount ; i++) {
+            servers.add(new KetamaServer(UUID.randomUUID().toString(), UUID.randomUUID().toString(), 1234, 1 + i % 3));
+        }
+
+        return new KetamaRing(new FNV1AServerHashStrategy(), hashFunction, servers);
+    }
+}
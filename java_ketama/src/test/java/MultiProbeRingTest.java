@@ -0,0 +1,102 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MultiProbeRingTest {
+
+    private ServerHashStrategy strategy;
+    private HashFunction hashFunction;
+    private Set<KetamaServer> servers;
+
+    @Before
+    public void setup() {
+        strategy = new FNV1AServerHashStrategy();
+        hashFunction = new FNV1A32HashFunction();
+        servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 100 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructorNPE() {
+        new MultiProbeRing(null, hashFunction);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorNoProbes() {
+        new MultiProbeRing(strategy, hashFunction, 1, 0);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() {
+        new MultiProbeRing(strategy, hashFunction).get("key");
+    }
+
+    @Test
+    public void testOneProbeMatchesKetamaRing() {
+        MultiProbeRing ring = new MultiProbeRing(strategy, hashFunction, 160, 1);
+        ring.add(servers);
+        KetamaRing ketamaRing = new KetamaRing(strategy, hashFunction, servers);
+
+        for (int i = 0 ; i < 10000 ; i++) {
+            assertEquals(ketamaRing.get("key" + i), ring.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testProbesImproveBalance() {
+        ServerHashStrategy md5Strategy = new MD5ServerHashStrategy();
+        HashFunction md5HashFunction = new MD5HashFunction();
+        MultiProbeRing oneProbe = new MultiProbeRing(md5Strategy, md5HashFunction, 1, 1);
+        oneProbe.add(servers);
+        MultiProbeRing manyProbes = new MultiProbeRing(md5Strategy, md5HashFunction);
+        manyProbes.add(servers);
+        assertEquals(servers.size(), manyProbes.getContinuum().size());
+
+        DistributionReport single = DistributionReport.measure(oneProbe, 100000);
+        DistributionReport multi = DistributionReport.measure(manyProbes, 100000);
+        assertTrue(multi.getPeakToMean() < single.getPeakToMean());
+        assertTrue(multi.getPeakToMean() < 1.3);
+        assertTrue(multi.getRelativeStandardDeviation() < single.getRelativeStandardDeviation() / 4);
+    }
+
+    @Test
+    public void testRemoveOnlyMovesRemovedKeys() {
+        MultiProbeRing ring = new MultiProbeRing(strategy, hashFunction);
+        ring.add(servers);
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        KetamaServer removed = new KetamaServer("server7", "host7", 11211);
+        ring.remove(removed);
+        assertFalse(ring.contains(removed));
+        assertEquals(99, ring.size());
+
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            if (!entry.getValue().equals(removed)) {
+                assertEquals(entry.getValue(), ring.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testSynchronizeRing() {
+        MultiProbeRing ring = new MultiProbeRing(strategy, hashFunction, 2, 4);
+        ring.add(servers);
+
+        Set<KetamaServer> newServers = new HashSet<KetamaServer>();
+        newServers.add(new KetamaServer("server0", "host0", 11211, 3));
+        newServers.add(new KetamaServer("server200", "host200", 11211));
+        ring.synchronizeRing(newServers);
+
+        assertEquals(newServers, ring.getServers());
+        assertEquals(8, ring.getContinuum().size());
+    }
+}
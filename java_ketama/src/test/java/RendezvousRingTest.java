@@ -0,0 +1,115 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RendezvousRingTest {
+
+    private HashFunction hashFunction;
+    private Set<KetamaServer> servers;
+
+    @Before
+    public void setup() {
+        hashFunction = new FNV1A32HashFunction();
+        servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 5 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructorNPE() {
+        new RendezvousRing(null);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() {
+        new RendezvousRing(hashFunction).get("key");
+    }
+
+    @Test
+    public void testBalance() {
+        RendezvousRing ring = new RendezvousRing(hashFunction, servers);
+        Map<KetamaServer, Integer> counts = count(ring, 100000);
+        for (int count : counts.values()) {
+            assertEquals(20000, count, 1000);
+        }
+    }
+
+    @Test
+    public void testWeights() {
+        KetamaServer heavy = new KetamaServer("heavy", "heavy", 11211, 3);
+        servers.add(heavy);
+        Map<KetamaServer, Integer> counts = count(new RendezvousRing(hashFunction, servers), 100000);
+
+        // the heavy server should win 3 / 8 of the keys, the others 1 / 8 each
+        assertEquals(37500, counts.get(heavy), 1500);
+        assertEquals(12500, counts.get(new KetamaServer("server0", "host0", 11211)), 1000);
+    }
+
+    @Test
+    public void testRemoveOnlyMovesRemovedKeys() {
+        RendezvousRing ring = new RendezvousRing(hashFunction, servers);
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        KetamaServer removed = new KetamaServer("server2", "host2", 11211);
+        ring.remove(removed);
+        assertFalse(ring.contains(removed));
+
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            if (!entry.getValue().equals(removed)) {
+                assertEquals(entry.getValue(), ring.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testGetTop() {
+        RendezvousRing ring = new RendezvousRing(hashFunction, servers);
+        KetamaServer[] top = new KetamaServer[3];
+
+        for (int i = 0 ; i < 1000 ; i++) {
+            String key = "key" + i;
+            assertEquals(3, ring.getTop(key, top));
+            assertEquals(ring.get(key), top[0]);
+            assertEquals(3, new HashSet<KetamaServer>(Arrays.asList(top)).size());
+
+            // the second choice is where the key goes once the first one is removed
+            RendezvousRing without = new RendezvousRing(hashFunction, servers);
+            without.remove(top[0]);
+            assertEquals(top[1], without.get(key));
+        }
+
+        assertEquals(5, ring.getTop("key", 10).size());
+        assertEquals(0, new RendezvousRing(hashFunction).getTop("key", 2).size());
+    }
+
+    @Test
+    public void testSynchronizeRing() {
+        RendezvousRing ring = new RendezvousRing(hashFunction, servers);
+        Set<KetamaServer> newServers = new HashSet<KetamaServer>();
+        newServers.add(new KetamaServer("server0", "host0", 11211, 2));
+        newServers.add(new KetamaServer("server9", "host9", 11211));
+        ring.synchronizeRing(newServers);
+
+        assertEquals(newServers, ring.getServers());
+        Map<KetamaServer, Integer> counts = count(ring, 30000);
+        assertEquals(20000, counts.get(new KetamaServer("server0", "host0", 11211)), 1000);
+    }
+
+    private static Map<KetamaServer, Integer> count(RendezvousRing ring, int keys) {
+        Map<KetamaServer, Integer> counts = new HashMap<KetamaServer, Integer>();
+        for (int i = 0 ; i < keys ; i++) {
+            KetamaServer server = ring.get("key" + i);
+            Integer count = counts.get(server);
+            counts.put(server, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,166 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class RequestStatisticsTest {
+
+    private KetamaRing ring;
+
+    @Before
+    public void setup() {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 5 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+        ring = new KetamaRing(new FNV1AServerHashStrategy(), new FNV1A32HashFunction(), servers);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorWidth() {
+        new RequestStatistics(16, 1000, 4, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorSampleInterval() {
+        new RequestStatistics(16, 1024, 4, 3);
+    }
+
+    @Test
+    public void testDisabled() {
+        assertNull(ring.getStatistics());
+        ring.get("key");
+    }
+
+    @Test
+    public void testServerCounts() {
+        RequestStatistics statistics = new RequestStatistics();
+        ring.setStatistics(statistics);
+
+        Map<KetamaServer, Long> expected = new HashMap<KetamaServer, Long>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            KetamaServer server = ring.get("key" + i);
+            Long count = expected.get(server);
+            expected.put(server, count == null ? 1 : count + 1);
+        }
+        ring.getAll(Arrays.asList("key0", "key1"));
+
+        // lookups made once statistics are turned off are not counted
+        ring.setStatistics(null);
+        expected.put(ring.get("key0"), expected.get(ring.get("key0")) + 1);
+        expected.put(ring.get("key1"), expected.get(ring.get("key1")) + 1);
+
+        RequestStatistics.Snapshot snapshot = statistics.getSnapshot();
+        assertEquals(10002, snapshot.getTotal());
+        assertEquals(expected, snapshot.getServerCounts());
+        assertEquals(10002 / 5.0, snapshot.getAverage(), 0.001);
+    }
+
+    @Test
+    public void testHotKeys() {
+        RequestStatistics statistics = new RequestStatistics(3, 1024, 4, 1);
+        ring.setStatistics(statistics);
+        generateLoad();
+
+        List<RequestStatistics.HotKey> hotKeys = statistics.getSnapshot().getHotKeys();
+        assertEquals(3, hotKeys.size());
+        assertEquals("hot", hotKeys.get(0).getKey());
+        assertEquals("warm", hotKeys.get(1).getKey());
+        assertEquals("tepid", hotKeys.get(2).getKey());
+
+        // the sketch never undercounts, and overcounts by about e / width of all lookups at most
+        assertTrue(hotKeys.get(0).getCount() >= 1000);
+        assertTrue(hotKeys.get(0).getCount() < 1000 + 11750 * Math.E / 1024 * 2);
+    }
+
+    @Test
+    public void testHotKeysSampled() {
+        RequestStatistics statistics = new RequestStatistics();
+        ring.setStatistics(statistics);
+        for (int i = 0 ; i < 10 ; i++) {
+            generateLoad();
+        }
+
+        List<RequestStatistics.HotKey> hotKeys = statistics.getSnapshot().getHotKeys();
+        assertEquals("hot", hotKeys.get(0).getKey());
+        assertEquals("warm", hotKeys.get(1).getKey());
+        assertEquals(10000, hotKeys.get(0).getCount(), 2000);
+        assertEquals(117500, statistics.getSnapshot().getTotal());
+    }
+
+    @Test
+    public void testHotKeysPeriodic() {
+        KetamaRing single = new KetamaRing(new FNV1AServerHashStrategy(), new FNV1A32HashFunction(),
+                Collections.singleton(new KetamaServer("server", "host", 11211)));
+        RequestStatistics statistics = new RequestStatistics();
+        single.setStatistics(statistics);
+
+        // the same batch of 16 lookups over and over, a multiple of the sample interval
+        String[] batch = {"hotA", "hotB", "c0", "hotA", "c1", "c2", "hotB", "c3",
+                "hotA", "c4", "c5", "c6", "c7", "c8", "c9", "c10"};
+        for (int i = 0 ; i < 100000 ; i++) {
+            for (String key : batch) {
+                single.get(key);
+            }
+        }
+
+        List<RequestStatistics.HotKey> hotKeys = statistics.getSnapshot().getHotKeys();
+        assertEquals("hotA", hotKeys.get(0).getKey());
+        assertEquals(300000, hotKeys.get(0).getCount(), 30000);
+        assertEquals("hotB", hotKeys.get(1).getKey());
+        assertEquals(200000, hotKeys.get(1).getCount(), 20000);
+        for (RequestStatistics.HotKey hotKey : hotKeys.subList(2, hotKeys.size())) {
+            assertEquals(100000, hotKey.getCount(), 10000);
+        }
+    }
+
+    @Test
+    public void testConcurrentCounts() throws InterruptedException {
+        final RequestStatistics statistics = new RequestStatistics();
+        ring.setStatistics(statistics);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0 ; t < threads.length ; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0 ; i < 25000 ; i++) {
+                            ring.get("key" + (i % 100));
+                        }
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(failed.get());
+        assertEquals(100000, statistics.getSnapshot().getTotal());
+        assertEquals(16, statistics.getSnapshot().getHotKeys().size());
+    }
+
+    private void generateLoad() {
+        for (int i = 0 ; i < 10000 ; i++) {
+            ring.get("cold" + i);
+            if (i % 10 == 0) {
+                ring.get("hot");
+            }
+            if (i % 20 == 0) {
+                ring.get("warm");
+            }
+            if (i % 40 == 0) {
+                ring.get("tepid");
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RingSnapshotTest {
+
+    private ServerHashStrategy strategy;
+    private HashFunction hashFunction;
+    private KetamaRing ring;
+
+    @Before
+    public void setup() {
+        strategy = new FNV1AServerHashStrategy();
+        hashFunction = new FNV1A32HashFunction();
+
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211, i % 3 + 1));
+        }
+        ring = new KetamaRing(strategy, hashFunction, servers);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testWriteNPE() throws IOException {
+        ring.writeSnapshot(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testReadNPE() throws IOException {
+        KetamaRing.readSnapshot(null, strategy, hashFunction);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        KetamaRing copy = KetamaRing.readSnapshot(new ByteArrayInputStream(write(ring)), strategy, hashFunction);
+
+        assertEquals(ring.getServers(), copy.getServers());
+        assertEquals(ring.getModifiedDate(), copy.getModifiedDate());
+        for (KetamaServer server : ring.getServers()) {
+            assertEquals(server.getWeight(), findServer(copy, server).getWeight(), 0);
+        }
+
+        SortedArrayContinuum expected = ring.getContinuum();
+        SortedArrayContinuum actual = copy.getContinuum();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0 ; i < expected.size() ; i++) {
+            assertEquals(expected.getPoint(i), actual.getPoint(i));
+            assertEquals(expected.getServer(i), actual.getServer(i));
+        }
+
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(ring.get("key" + i), copy.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testRoundTripLabels() throws IOException {
+        KetamaServer labeled = new KetamaServer("labeled", "labeled", 11211, 1, "east", "rack1");
+        KetamaServer zoneOnly = new KetamaServer("zoneOnly", "zoneOnly", 11211, 1, "west", null);
+        ring.add(labeled);
+        ring.add(zoneOnly);
+
+        KetamaRing copy = KetamaRing.readSnapshot(new ByteArrayInputStream(write(ring)), strategy, hashFunction);
+        for (KetamaServer server : ring.getServers()) {
+            assertTrue(server.hasSameLabels(findServer(copy, server)));
+        }
+        assertEquals("rack1", findServer(copy, labeled).getRack());
+        assertNull(findServer(copy, zoneOnly).getRack());
+    }
+
+    @Test
+    public void testRoundTripEmpty() throws IOException {
+        KetamaRing empty = new KetamaRing(strategy, hashFunction);
+        KetamaRing copy = KetamaRing.readSnapshot(new ByteArrayInputStream(write(empty)), strategy, hashFunction);
+        assertEquals(0, copy.size());
+    }
+
+    @Test
+    public void testMutateAfterRead() throws IOException {
+        KetamaRing copy = KetamaRing.readSnapshot(new ByteArrayInputStream(write(ring)), strategy, hashFunction);
+        KetamaServer server = new KetamaServer("server10", "host10", 11211);
+        ring.add(server);
+        copy.add(server);
+        KetamaServer removed = new KetamaServer("server3", "host3", 11211);
+        ring.remove(removed);
+        copy.remove(removed);
+
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(ring.get("key" + i), copy.get("key" + i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorrupt() throws IOException {
+        byte[] snapshot = write(ring);
+        snapshot[snapshot.length / 2] ^= 1;
+        KetamaRing.readSnapshot(new ByteArrayInputStream(snapshot), strategy, hashFunction);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException {
+        byte[] snapshot = write(ring);
+        KetamaRing.readSnapshot(new ByteArrayInputStream(Arrays.copyOf(snapshot, snapshot.length - 20)), strategy,
+                hashFunction);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStrategyMismatch() throws IOException {
+        KetamaRing.readSnapshot(new ByteArrayInputStream(write(ring)), new IncrementNameServerHashStrategy(hashFunction),
+                hashFunction);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHashFunctionMismatch() throws IOException {
+        KetamaRing.readSnapshot(new ByteArrayInputStream(write(ring)), strategy, new MD5HashFunction());
+    }
+
+    @Test
+    public void testServerLostSharedPoint() throws IOException {
+        Set<KetamaServer> servers = new LinkedHashSet<KetamaServer>();
+        for (int i = 0 ; i < 3 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 11211));
+        }
+        KetamaRing shared = new KetamaRing(new SharedPointStrategy(0), hashFunction, servers);
+        // removing a server takes the point it shared with every other server along with it
+        shared.remove(new KetamaServer("server1", "host1", 11211));
+
+        KetamaRing read = KetamaRing.readSnapshot(new ByteArrayInputStream(write(shared)), new SharedPointStrategy(0),
+                hashFunction);
+        assertEquals(shared.getServers(), read.getServers());
+        assertEquals(20, read.getContinuum().size());
+        for (int i = 0 ; i < 1000 ; i++) {
+            assertEquals(shared.get("key" + i), read.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testPlacementMismatch() throws IOException {
+        KetamaRing shared = new KetamaRing(new SharedPointStrategy(0), hashFunction,
+                Collections.singleton(new KetamaServer("server0", "host0", 11211)));
+        try {
+            KetamaRing.readSnapshot(new ByteArrayInputStream(write(shared)), new SharedPointStrategy(50), hashFunction);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("placement"));
+        }
+    }
+
+    private static byte[] write(KetamaRing ring) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ring.writeSnapshot(out);
+        return out.toByteArray();
+    }
+
+    private static KetamaServer findServer(KetamaRing ring, KetamaServer server) {
+        for (KetamaServer candidate : ring.getServers()) {
+            if (candidate.equals(server)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Places ten points per server and one point every server shares, all shifted by an offset.
+     */
+    private static final class SharedPointStrategy implements ServerHashStrategy {
+
+        private final long offset;
+
+        SharedPointStrategy(long offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public void addServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+            for (long point : points(server)) {
+                continuum.put(point, server);
+            }
+        }
+
+        @Override
+        public void removeServer(KetamaServer server, TreeMap<Long, KetamaServer> continuum, int pointsPerServer) {
+            for (long point : points(server)) {
+                continuum.remove(point);
+            }
+        }
+
+        private long[] points(KetamaServer server) {
+            long[] points = new long[11];
+            long base = Long.parseLong(server.getName().substring(6)) * 100 + offset;
+            for (int i = 0 ; i < 10 ; i++) {
+                points[i] = base + i;
+            }
+            points[10] = 1000000 + offset;
+            return points;
+        }
+    }
+}
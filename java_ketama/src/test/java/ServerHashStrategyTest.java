@@ -3,11 +3,10 @@ import com.wayfair.common.hash.ketama.ServerHashStrategy;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.UUID;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public abstract class ServerHashStrategyTest<T extends ServerHashStrategy> {
 
@@ -80,6 +79,30 @@ public abstract class ServerHashStrategyTest<T extends ServerHashStrategy> {
         assertServerCount(0, server1, map);
     }
 
+    @Test
+    public void testAddRemoveWeightedServer() {
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        KetamaServer server0 = randomServer();
+        KetamaServer heavy = new KetamaServer(server0.getName(), server0.getHostname(), server0.getPort(), 2.5);
+        KetamaServer light = new KetamaServer(server0.getName(), server0.getHostname(), server0.getPort(), 0.5);
+
+        strategy.addServer(heavy, map, 10);
+        assertEquals(25, map.size());
+        assertServerCount(25, heavy, map);
+
+        strategy.removeServer(heavy, map, 10);
+        assertEquals(0, map.size());
+
+        // a lighter server keeps a subset of the points of a heavier one, so reweighting only moves the difference
+        strategy.addServer(light, map, 10);
+        Set<Long> lightPoints = new HashSet<Long>(map.keySet());
+        assertEquals(5, lightPoints.size());
+
+        strategy.addServer(heavy, map, 10);
+        assertEquals(25, map.size());
+        assertTrue(map.keySet().containsAll(lightPoints));
+    }
+
     private void assertServerCount(int expectedCount, KetamaServer server, Map<Long, KetamaServer> map) {
         int count = 0;
         for (KetamaServer s : map.values()) {
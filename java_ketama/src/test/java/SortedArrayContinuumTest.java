@@ -0,0 +1,302 @@
+import com.wayfair.common.hash.ketama.ContinuumArc;
+import com.wayfair.common.hash.ketama.FailureDomain;
+import com.wayfair.common.hash.ketama.KetamaServer;
+import com.wayfair.common.hash.ketama.OwnershipChange;
+import com.wayfair.common.hash.ketama.SortedArrayContinuum;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SortedArrayContinuumTest {
+
+    @Test(expected = NullPointerException.class)
+    public void testFromNPE() {
+        SortedArrayContinuum.from(null);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() {
+        SortedArrayContinuum.empty().get(123);
+    }
+
+    @Test
+    public void testFromEmpty() {
+        assertEquals(0, SortedArrayContinuum.from(new TreeMap<Long, KetamaServer>()).size());
+    }
+
+    @Test
+    public void testGet() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234);
+        KetamaServer server1 = new KetamaServer("b", "b", 1234);
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        map.put(10L, server0);
+        map.put(20L, server1);
+        map.put(30L, server0);
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        assertEquals(3, continuum.size());
+        assertEquals(server0, continuum.get(-5));
+        assertEquals(server0, continuum.get(10));
+        assertEquals(server1, continuum.get(11));
+        assertEquals(server1, continuum.get(20));
+        assertEquals(server0, continuum.get(25));
+        assertEquals(server0, continuum.get(30));
+        assertEquals(server0, continuum.get(31));
+        assertEquals(0, continuum.indexOf(31));
+        assertEquals(20L, continuum.getPoint(1));
+        assertEquals(server1, continuum.getServer(1));
+    }
+
+    @Test
+    public void testGetMatchesTreeMap() {
+        Random random = new Random(42);
+        List<KetamaServer> servers = new ArrayList<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 1234));
+        }
+
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        for (int i = 0 ; i < 1000 ; i++) {
+            map.put(random.nextLong() & 0xffffffffL, servers.get(random.nextInt(servers.size())));
+        }
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        for (int i = 0 ; i < 10000 ; i++) {
+            long hashValue = random.nextLong() & 0xffffffffL;
+            Map.Entry<Long, KetamaServer> entry = map.ceilingEntry(hashValue);
+            if (entry == null) {
+                entry = map.firstEntry();
+            }
+
+            assertEquals(entry.getValue(), continuum.get(hashValue));
+        }
+    }
+
+    @Test
+    public void testOffHeap() {
+        Random random = new Random(42);
+        List<KetamaServer> servers = new ArrayList<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 1234));
+        }
+
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        for (int i = 0 ; i < 1000 ; i++) {
+            map.put(random.nextLong(), servers.get(random.nextInt(servers.size())));
+        }
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        SortedArrayContinuum offHeap = continuum.toOffHeap();
+        assertFalse(continuum.isOffHeap());
+        assertTrue(offHeap.isOffHeap());
+        assertSame(offHeap, offHeap.toOffHeap());
+
+        assertEquals(continuum.size(), offHeap.size());
+        for (int i = 0 ; i < continuum.size() ; i++) {
+            assertEquals(continuum.getPoint(i), offHeap.getPoint(i));
+            assertSame(continuum.getServer(i), offHeap.getServer(i));
+            assertEquals(continuum.nextDistinct(i), offHeap.nextDistinct(i));
+        }
+
+        KetamaServer[] expected = new KetamaServer[3];
+        KetamaServer[] actual = new KetamaServer[3];
+        for (int i = 0 ; i < 1000 ; i++) {
+            long hashValue = random.nextLong();
+            assertSame(continuum.get(hashValue), offHeap.get(hashValue));
+            assertEquals(continuum.getDistinct(hashValue, expected), offHeap.getDistinct(hashValue, actual));
+            assertArrayEquals(expected, actual);
+        }
+
+        assertTrue(continuum.diff(offHeap).isEmpty());
+        SortedArrayContinuum onHeap = offHeap.toOnHeap();
+        assertFalse(onHeap.isOffHeap());
+        assertTrue(onHeap.diff(continuum).isEmpty());
+
+        // an empty continuum has nothing to move off the heap
+        assertFalse(SortedArrayContinuum.empty().toOffHeap().isOffHeap());
+    }
+
+    @Test
+    public void testDiff() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234);
+        KetamaServer server1 = new KetamaServer("b", "b", 1234);
+        KetamaServer server2 = new KetamaServer("c", "c", 1234);
+        TreeMap<Long, KetamaServer> before = new TreeMap<Long, KetamaServer>();
+        before.put(10L, server0);
+        before.put(20L, server1);
+        TreeMap<Long, KetamaServer> after = new TreeMap<Long, KetamaServer>(before);
+        after.put(15L, server2);
+        after.put(30L, server2);
+
+        List<OwnershipChange> changes = SortedArrayContinuum.from(before).diff(SortedArrayContinuum.from(after));
+        assertEquals(Arrays.asList(
+                new OwnershipChange(11, 15, server1, server2),
+                new OwnershipChange(21, 30, server0, server2)), changes);
+
+        assertTrue(SortedArrayContinuum.from(after).diff(SortedArrayContinuum.from(after)).isEmpty());
+    }
+
+    @Test
+    public void testDiffEmpty() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234);
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        map.put(10L, server0);
+
+        assertEquals(Arrays.asList(new OwnershipChange(Long.MIN_VALUE, Long.MAX_VALUE, null, server0)),
+                SortedArrayContinuum.empty().diff(SortedArrayContinuum.from(map)));
+        assertEquals(Arrays.asList(new OwnershipChange(Long.MIN_VALUE, Long.MAX_VALUE, server0, null)),
+                SortedArrayContinuum.from(map).diff(SortedArrayContinuum.empty()));
+    }
+
+    @Test
+    public void testDiffMatchesGet() {
+        Random random = new Random(42);
+        List<KetamaServer> servers = new ArrayList<KetamaServer>();
+        for (int i = 0 ; i < 10 ; i++) {
+            servers.add(new KetamaServer("server" + i, "host" + i, 1234));
+        }
+
+        TreeMap<Long, KetamaServer> before = new TreeMap<Long, KetamaServer>();
+        TreeMap<Long, KetamaServer> after = new TreeMap<Long, KetamaServer>();
+        for (int i = 0 ; i < 1000 ; i++) {
+            long point = random.nextInt(100000);
+            before.put(point, servers.get(random.nextInt(servers.size())));
+            after.put(point + random.nextInt(3) - 1, servers.get(random.nextInt(servers.size())));
+        }
+
+        SortedArrayContinuum beforeContinuum = SortedArrayContinuum.from(before);
+        SortedArrayContinuum afterContinuum = SortedArrayContinuum.from(after);
+        List<OwnershipChange> changes = beforeContinuum.diff(afterContinuum);
+
+        for (long hashValue = -10 ; hashValue < 100010 ; hashValue++) {
+            OwnershipChange change = find(changes, hashValue);
+            KetamaServer oldServer = beforeContinuum.get(hashValue);
+            KetamaServer newServer = afterContinuum.get(hashValue);
+            if (oldServer.equals(newServer)) {
+                assertNull(change);
+            } else {
+                assertNotNull(change);
+                assertEquals(oldServer, change.getOldServer());
+                assertEquals(newServer, change.getNewServer());
+            }
+        }
+    }
+
+    @Test
+    public void testArcs() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234);
+        KetamaServer server1 = new KetamaServer("b", "b", 1234);
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        map.put(10L, server0);
+        map.put(20L, server1);
+        map.put(30L, server1);
+        map.put(40L, server0);
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        List<ContinuumArc> arcs0 = new ArrayList<ContinuumArc>();
+        for (Iterator<ContinuumArc> iterator = continuum.arcs(server0) ; iterator.hasNext() ; ) {
+            arcs0.add(iterator.next());
+        }
+        assertEquals(Arrays.asList(
+                new ContinuumArc(Long.MIN_VALUE, 10, server0),
+                new ContinuumArc(31, 40, server0),
+                new ContinuumArc(41, Long.MAX_VALUE, server0)), arcs0);
+
+        Iterator<ContinuumArc> arcs1 = continuum.arcs(server1);
+        assertEquals(new ContinuumArc(11, 30, server1), arcs1.next());
+        assertFalse(arcs1.hasNext());
+
+        assertFalse(continuum.arcs(new KetamaServer("c", "c", 1234)).hasNext());
+        assertFalse(SortedArrayContinuum.empty().arcs(server0).hasNext());
+    }
+
+    @Test
+    public void testGetDistinct() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234);
+        KetamaServer server1 = new KetamaServer("b", "b", 1234);
+        KetamaServer server2 = new KetamaServer("c", "c", 1234);
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        map.put(10L, server0);
+        map.put(20L, server0);
+        map.put(30L, server1);
+        map.put(40L, server0);
+        map.put(50L, server2);
+        map.put(60L, server2);
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        assertEquals(2, continuum.nextDistinct(0));
+        assertEquals(4, continuum.nextDistinct(3));
+        assertEquals(0, continuum.nextDistinct(5));
+
+        KetamaServer[] servers = new KetamaServer[3];
+        assertEquals(3, continuum.getDistinct(15, servers));
+        assertArrayEquals(new KetamaServer[] {server0, server1, server2}, servers);
+
+        assertEquals(3, continuum.getDistinct(35, servers));
+        assertArrayEquals(new KetamaServer[] {server0, server2, server1}, servers);
+
+        servers = new KetamaServer[5];
+        assertEquals(3, continuum.getDistinct(55, servers));
+        assertArrayEquals(new KetamaServer[] {server2, server0, server1, null, null}, servers);
+
+        assertEquals(0, SortedArrayContinuum.empty().getDistinct(55, servers));
+    }
+
+    @Test
+    public void testGetDistinctByDomain() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234, 1, "east", "rack1");
+        KetamaServer server1 = new KetamaServer("b", "b", 1234, 1, "east", "rack1");
+        KetamaServer server2 = new KetamaServer("c", "c", 1234, 1, "east", "rack2");
+        KetamaServer server3 = new KetamaServer("d", "d", 1234);
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        map.put(10L, server0);
+        map.put(20L, server1);
+        map.put(30L, server0);
+        map.put(40L, server2);
+        map.put(50L, server3);
+        map.put(60L, server1);
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        assertEquals(3, continuum.nextInOtherDomain(0, FailureDomain.RACK));
+        assertEquals(4, continuum.nextInOtherDomain(3, FailureDomain.RACK));
+        assertEquals(3, continuum.nextInOtherDomain(5, FailureDomain.RACK));
+        assertEquals(4, continuum.nextInOtherDomain(3, FailureDomain.ZONE));
+
+        KetamaServer[] servers = new KetamaServer[3];
+        assertEquals(3, continuum.getDistinct(15, servers, FailureDomain.RACK));
+        assertArrayEquals(new KetamaServer[] {server1, server2, server3}, servers);
+
+        servers = new KetamaServer[5];
+        assertEquals(3, continuum.getDistinct(55, servers, FailureDomain.RACK));
+        assertArrayEquals(new KetamaServer[] {server1, server2, server3, null, null}, servers);
+
+        assertEquals(2, continuum.getDistinct(55, servers, FailureDomain.ZONE));
+        assertEquals(server3, servers[1]);
+    }
+
+    @Test
+    public void testGetDistinctSingleServer() {
+        KetamaServer server0 = new KetamaServer("a", "a", 1234);
+        TreeMap<Long, KetamaServer> map = new TreeMap<Long, KetamaServer>();
+        map.put(10L, server0);
+        map.put(20L, server0);
+
+        SortedArrayContinuum continuum = SortedArrayContinuum.from(map);
+        assertEquals(-1, continuum.nextDistinct(1));
+
+        KetamaServer[] servers = new KetamaServer[2];
+        assertEquals(1, continuum.getDistinct(15, servers));
+        assertEquals(server0, servers[0]);
+    }
+
+    private static OwnershipChange find(List<OwnershipChange> changes, long hashValue) {
+        for (OwnershipChange change : changes) {
+            if (change.contains(hashValue)) {
+                return change;
+            }
+        }
+        return null;
+    }
+}
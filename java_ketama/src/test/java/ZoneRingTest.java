@@ -0,0 +1,148 @@
+import com.wayfair.common.hash.ketama.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ZoneRingTest {
+
+    private static final String[] ZONES = {"east", "west", "central"};
+
+    private ZoneRing ring;
+
+    @Before
+    public void setup() {
+        ring = new ZoneRing(new MD5ServerHashStrategy(), new FNV1AServerHashStrategy(), new FNV1A32HashFunction());
+        for (String zone : ZONES) {
+            ring.add(zone, servers(zone, 10));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructorNPE() {
+        new ZoneRing(null, new FNV1AServerHashStrategy(), new FNV1A32HashFunction());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testGetEmpty() {
+        new ZoneRing(new MD5ServerHashStrategy(), new FNV1AServerHashStrategy(), new FNV1A32HashFunction()).get("key");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerInTwoZones() {
+        ring.add("west", new KetamaServer("east0", "east-host0", 11211));
+    }
+
+    @Test
+    public void testRouting() {
+        assertEquals(new HashSet<String>(Arrays.asList(ZONES)), ring.getZones());
+        assertEquals(30, ring.size());
+
+        for (int i = 0 ; i < 10000 ; i++) {
+            String key = "key" + i;
+            String zone = ring.getZone(key);
+            KetamaServer server = ring.get(key);
+            assertTrue(ring.getServers(zone).contains(server));
+            assertEquals(server, ring.get(zone, key));
+        }
+    }
+
+    @Test
+    public void testBalance() {
+        Map<KetamaServer, Integer> counts = new HashMap<KetamaServer, Integer>();
+        for (int i = 0 ; i < 300000 ; i++) {
+            KetamaServer server = ring.get("key" + i);
+            Integer count = counts.get(server);
+            counts.put(server, count == null ? 1 : count + 1);
+        }
+
+        assertEquals(30, counts.size());
+        for (int count : counts.values()) {
+            assertEquals(10000, count, 3500);
+        }
+    }
+
+    @Test
+    public void testRemoveZoneOnlyMovesItsKeys() {
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        Set<KetamaServer> drained = ring.getServers("east");
+        ring.removeZone("east");
+        assertFalse(ring.getZones().contains("east"));
+        assertEquals(20, ring.size());
+
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            KetamaServer server = ring.get(entry.getKey());
+            if (drained.contains(entry.getValue())) {
+                assertFalse(drained.contains(server));
+            } else {
+                assertEquals(entry.getValue(), server);
+            }
+        }
+    }
+
+    @Test
+    public void testServerChangesStayInZone() {
+        Map<String, KetamaServer> before = new HashMap<String, KetamaServer>();
+        for (int i = 0 ; i < 10000 ; i++) {
+            before.put("key" + i, ring.get("key" + i));
+        }
+
+        KetamaServer removed = new KetamaServer("west0", "west-host0", 11211);
+        ring.remove(removed);
+        assertFalse(ring.contains(removed));
+
+        for (Map.Entry<String, KetamaServer> entry : before.entrySet()) {
+            KetamaServer server = ring.get(entry.getKey());
+            if (entry.getValue().equals(removed)) {
+                assertTrue(ring.getServers("west").contains(server));
+            } else {
+                assertEquals(entry.getValue(), server);
+            }
+        }
+    }
+
+    @Test
+    public void testSynchronizeZone() {
+        Set<KetamaServer> central = servers("central", 4);
+        ring.synchronizeZone("central", central);
+        assertEquals(central, ring.getServers("central"));
+        assertEquals(24, ring.size());
+
+        ring.synchronizeZone("central", Collections.<KetamaServer>emptySet());
+        assertFalse(ring.getZones().contains("central"));
+        assertFalse(ring.contains(new KetamaServer("central0", "central-host0", 11211)));
+
+        // a server from a removed zone can join another zone
+        ring.add("west", new KetamaServer("central0", "central-host0", 11211));
+        assertEquals(11, ring.getServers("west").size());
+    }
+
+    @Test
+    public void testZoneWeights() {
+        assertEquals(1.0, ring.getZoneWeight("east"), 0.0);
+        ring.setZoneWeight("east", 2);
+
+        int east = 0;
+        for (int i = 0 ; i < 100000 ; i++) {
+            if (ring.getZone("key" + i).equals("east")) {
+                east++;
+            }
+        }
+        // east should get 2 / 4 of the keys
+        assertEquals(50000, east, 5000);
+    }
+
+    private static Set<KetamaServer> servers(String zone, int count) {
+        Set<KetamaServer> servers = new HashSet<KetamaServer>();
+        for (int i = 0 ; i < count ; i++) {
+            servers.add(new KetamaServer(zone + i, zone + "-host" + i, 11211));
+        }
+        return servers;
+    }
+}
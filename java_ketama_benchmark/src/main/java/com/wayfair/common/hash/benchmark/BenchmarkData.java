@@ -0,0 +1,50 @@
+package com.wayfair.common.hash.benchmark;
+
+import com.wayfair.common.hash.ketama.KetamaServer;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic servers and keys shared by the benchmarks, so every run measures the same ring.
+ */
+final class BenchmarkData {
+
+    static final int KEY_COUNT = 1024;
+
+    private static final long SEED = 42;
+    private static final String KEY_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789-_:";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create servers named server-0 through server-(count - 1), starting at the given offset.
+     */
+    static Set<KetamaServer> servers(int offset, int count) {
+        Set<KetamaServer> servers = new LinkedHashSet<KetamaServer>();
+        for (int i = offset ; i < offset + count ; i++) {
+            servers.add(new KetamaServer("server-" + i, "10.0." + (i / 256) + "." + (i % 256), 11211));
+        }
+
+        return servers;
+    }
+
+    /**
+     * Create KEY_COUNT random keys of the given length.
+     */
+    static String[] keys(int length) {
+        Random random = new Random(SEED);
+        String[] keys = new String[KEY_COUNT];
+        for (int i = 0 ; i < keys.length ; i++) {
+            StringBuilder key = new StringBuilder(length);
+            for (int j = 0 ; j < length ; j++) {
+                key.append(KEY_CHARACTERS.charAt(random.nextInt(KEY_CHARACTERS.length())));
+            }
+            keys[i] = key.toString();
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,42 @@
+package com.wayfair.common.hash.benchmark;
+
+import com.wayfair.common.hash.ketama.HashFunction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures HashFunction.calculateHash for each implementation across key lengths.
+ * <p/>
+ * NativeHashFunction relies on String.hashCode(), which is cached by the String after the first call, so it measures
+ * the cost of the call rather than of hashing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashFunctionBenchmark {
+
+    @Param({"FNV1A32", "MD5", "NATIVE"})
+    public HashFunctionType function;
+
+    @Param({"8", "32", "128"})
+    public int keyLength;
+
+    private HashFunction hashFunction;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        hashFunction = function.hashFunction();
+        keys = BenchmarkData.keys(keyLength);
+    }
+
+    @Benchmark
+    public long calculateHash() {
+        return hashFunction.calculateHash(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+}
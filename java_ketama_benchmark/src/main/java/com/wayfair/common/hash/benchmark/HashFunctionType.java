@@ -0,0 +1,56 @@
+package com.wayfair.common.hash.benchmark;
+
+import com.wayfair.common.hash.ketama.FNV1A32HashFunction;
+import com.wayfair.common.hash.ketama.FNV1AServerHashStrategy;
+import com.wayfair.common.hash.ketama.HashFunction;
+import com.wayfair.common.hash.ketama.IncrementNameServerHashStrategy;
+import com.wayfair.common.hash.ketama.MD5HashFunction;
+import com.wayfair.common.hash.ketama.MD5ServerHashStrategy;
+import com.wayfair.common.hash.ketama.NativeHashFunction;
+import com.wayfair.common.hash.ketama.ServerHashStrategy;
+
+/**
+ * The hash functions and matching server strategies the benchmarks can be parameterized with.
+ */
+public enum HashFunctionType {
+
+    FNV1A32 {
+        @Override
+        HashFunction hashFunction() {
+            return new FNV1A32HashFunction();
+        }
+
+        @Override
+        ServerHashStrategy serverHashStrategy() {
+            return new FNV1AServerHashStrategy();
+        }
+    },
+
+    MD5 {
+        @Override
+        HashFunction hashFunction() {
+            return new MD5HashFunction();
+        }
+
+        @Override
+        ServerHashStrategy serverHashStrategy() {
+            return new MD5ServerHashStrategy();
+        }
+    },
+
+    NATIVE {
+        @Override
+        HashFunction hashFunction() {
+            return new NativeHashFunction();
+        }
+
+        @Override
+        ServerHashStrategy serverHashStrategy() {
+            return new IncrementNameServerHashStrategy(hashFunction());
+        }
+    };
+
+    abstract HashFunction hashFunction();
+
+    abstract ServerHashStrategy serverHashStrategy();
+}
@@ -0,0 +1,199 @@
+package com.wayfair.common.hash.benchmark;
+
+import com.wayfair.common.hash.ketama.FailureDomain;
+import com.wayfair.common.hash.ketama.KetamaRing;
+import com.wayfair.common.hash.ketama.KetamaServer;
+import com.wayfair.common.hash.ketama.LookupCache;
+import com.wayfair.common.hash.ketama.RequestStatistics;
+import com.wayfair.common.hash.ketama.StagedRing;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures KetamaRing lookups of servers and server ids, on and off the heap, with and without request statistics or
+ * a lookup cache, replica lookups by server and by rack, sequential and parallel construction, and membership changes,
+ * applied directly or committed from a staged ring, for rings of 10, 100 and 1000 servers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KetamaRingBenchmark {
+
+    // share of the servers replaced by each synchronizeRing call
+    private static final double CHURN = 0.1;
+    private static final int REPLICAS = 3;
+    private static final int ZONES = 3;
+    private static final int RACKS_PER_ZONE = 4;
+
+    @Param({"FNV1A32", "MD5", "NATIVE"})
+    public HashFunctionType function;
+
+    @Param({"10", "100", "1000"})
+    public int serverCount;
+
+    @Param({"32"})
+    public int keyLength;
+
+    private Set<KetamaServer> servers;
+    private Set<KetamaServer> churnedServers;
+    private KetamaServer extraServer;
+    private KetamaRing ring;
+    private KetamaRing statisticsRing;
+    private KetamaRing cachedRing;
+    private KetamaRing offHeapRing;
+    private KetamaRing rackedRing;
+    private KetamaServer[] replicas;
+    private String[] keys;
+    private KetamaServer[] results;
+    private ExecutorService executor;
+    private boolean churned;
+    private int next;
+
+    @Setup
+    public void setup() {
+        servers = BenchmarkData.servers(0, serverCount);
+
+        // the same servers, with the first CHURN of them swapped for new ones
+        int replaced = Math.max(1, (int) (serverCount * CHURN));
+        churnedServers = new LinkedHashSet<KetamaServer>(BenchmarkData.servers(replaced, serverCount - replaced));
+        churnedServers.addAll(BenchmarkData.servers(serverCount, replaced));
+
+        extraServer = BenchmarkData.servers(2 * serverCount, 1).iterator().next();
+        ring = newRing();
+        statisticsRing = newRing();
+        statisticsRing.setStatistics(new RequestStatistics());
+        cachedRing = newRing();
+        cachedRing.setLookupCache(new LookupCache(2 * BenchmarkData.KEY_COUNT));
+        offHeapRing = newRing();
+        offHeapRing.setOffHeap(true);
+        rackedRing = new KetamaRing(function.serverHashStrategy(), function.hashFunction(), racked(servers));
+        replicas = new KetamaServer[REPLICAS];
+        keys = BenchmarkData.keys(keyLength);
+        results = new KetamaServer[keys.length];
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public KetamaServer get() {
+        return ring.get(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public KetamaServer getWithStatistics() {
+        return statisticsRing.get(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public KetamaServer getOffHeap() {
+        return offHeapRing.get(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public int getIndex() {
+        return ring.getIndex(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public KetamaServer getCached() {
+        return cachedRing.get(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public int getN() {
+        return ring.getN(keys[next++ & (BenchmarkData.KEY_COUNT - 1)], replicas);
+    }
+
+    @Benchmark
+    public int getNByRack() {
+        return rackedRing.getN(keys[next++ & (BenchmarkData.KEY_COUNT - 1)], replicas, FailureDomain.RACK);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.KEY_COUNT)
+    public KetamaServer[] getAll() {
+        ring.getAll(keys, results);
+        return results;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public KetamaRing construct() {
+        return newRing();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public KetamaRing constructParallel() {
+        return new KetamaRing(function.serverHashStrategy(), function.hashFunction(), servers, executor);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public KetamaRing addRemove() {
+        ring.add(extraServer);
+        ring.remove(extraServer);
+        return ring;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public KetamaRing synchronizeRing() {
+        ring.synchronizeRing(churned ? servers : churnedServers);
+        churned = !churned;
+        return ring;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public boolean commit(Staged staged) {
+        return staged.staged.commit();
+    }
+
+    /**
+     * The same churn as synchronizeRing, prepared before each invocation so commit only measures the time the ring's
+     * lock is held.
+     */
+    @State(Scope.Thread)
+    public static class Staged {
+
+        private StagedRing staged;
+
+        @Setup(Level.Invocation)
+        public void prepare(KetamaRingBenchmark benchmark) throws Exception {
+            staged = benchmark.ring.prepare(benchmark.churned ? benchmark.servers : benchmark.churnedServers,
+                    benchmark.executor).get();
+            benchmark.churned = !benchmark.churned;
+        }
+    }
+
+    private KetamaRing newRing() {
+        return new KetamaRing(function.serverHashStrategy(), function.hashFunction(), servers);
+    }
+
+    /**
+     * Copy the servers, spreading them round robin over the racks of several zones.
+     */
+    private static Set<KetamaServer> racked(Set<KetamaServer> servers) {
+        Set<KetamaServer> racked = new LinkedHashSet<KetamaServer>();
+        int i = 0;
+        for (KetamaServer server : servers) {
+            racked.add(new KetamaServer(server.getName(), server.getHostname(), server.getPort(), server.getWeight(),
+                    "zone-" + i % ZONES, "rack-" + i / ZONES % RACKS_PER_ZONE));
+            i++;
+        }
+        return racked;
+    }
+}
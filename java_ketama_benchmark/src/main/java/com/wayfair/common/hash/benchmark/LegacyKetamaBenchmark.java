@@ -0,0 +1,50 @@
+package com.wayfair.common.hash.benchmark;
+
+import java_ketama.Ketama;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Ketama.getServerForKey from the legacy java_ketama/Ketama.java for comparison with KetamaRing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LegacyKetamaBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int serverCount;
+
+    @Param({"32"})
+    public int keyLength;
+
+    private Ketama pool;
+    private String[] keys;
+    private int next;
+
+    @Setup
+    public void setup() {
+        String[] servers = new String[serverCount];
+        String[] names = new String[serverCount];
+        Integer[] weights = new Integer[serverCount];
+        for (int i = 0 ; i < serverCount ; i++) {
+            names[i] = "server-" + i;
+            servers[i] = "10.0." + (i / 256) + "." + (i % 256) + ":11211";
+            weights[i] = 1;
+        }
+
+        // Ketama keeps its buckets in a static field, so each fork only ever holds one pool
+        pool = Ketama.getInstance("benchmark-" + serverCount);
+        pool.initialize(servers, names, weights);
+        keys = BenchmarkData.keys(keyLength);
+    }
+
+    @Benchmark
+    public String getServerForKey() {
+        return pool.getServerForKey(keys[next++ & (BenchmarkData.KEY_COUNT - 1)]);
+    }
+}